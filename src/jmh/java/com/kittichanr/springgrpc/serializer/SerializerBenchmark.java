@@ -0,0 +1,72 @@
+package com.kittichanr.springgrpc.serializer;
+
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.springgrpc.sample.Generator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializer's binary and JSON files for one laptop. The files go to a temporary directory, so
+ * the numbers include the file system calls, as they do for the callers of Serializer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+    private Serializer serializer;
+    private Laptop laptop;
+    private Path folder;
+    private String binaryFile;
+    private String jsonFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        serializer = new Serializer();
+        laptop = new Generator(new Random(42)).NewLaptop();
+        folder = Files.createTempDirectory("serializer-benchmark");
+        binaryFile = folder.resolve("laptop.bin").toString();
+        jsonFile = folder.resolve("laptop.json").toString();
+        serializer.WriteBinaryFile(laptop, binaryFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(Path.of(binaryFile));
+        Files.deleteIfExists(Path.of(jsonFile));
+        Files.deleteIfExists(folder);
+    }
+
+    @Benchmark
+    public void writeBinaryFile() throws IOException {
+        serializer.WriteBinaryFile(laptop, binaryFile);
+    }
+
+    @Benchmark
+    public Laptop readBinaryFile() throws IOException {
+        return serializer.ReadBinaryFile(binaryFile);
+    }
+
+    @Benchmark
+    public void writeJSONFile() throws IOException {
+        serializer.writeJSONFile(laptop, jsonFile);
+    }
+}
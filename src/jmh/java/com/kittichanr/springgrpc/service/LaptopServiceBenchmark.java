@@ -0,0 +1,129 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.CreateLaptopRequest;
+import com.kittichanr.pcbook.generated.CreateLaptopResponse;
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.pcbook.generated.LaptopServiceGrpc;
+import com.kittichanr.pcbook.generated.Memory;
+import com.kittichanr.pcbook.generated.SearchLaptopRequest;
+import com.kittichanr.pcbook.generated.SearchLaptopResponse;
+import com.kittichanr.springgrpc.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LaptopService RPCs end to end over the in-process transport, so the numbers cover stubs,
+ * marshalling, the service and the store, but no network. The server uses its default executor
+ * as LaptopServer does in production. A new server is started for every iteration, so the
+ * laptops created in one iteration don't grow the catalog of the next.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LaptopServiceBenchmark {
+    @Param({"in-memory", "columnar"})
+    public String store;
+
+    @Param({"10000"})
+    public int catalogSize;
+
+    private Laptop[] catalog;
+    private CreateLaptopRequest[] createRequests;
+    private SearchLaptopRequest searchRequest;
+    private Path imageFolder;
+    private LaptopServer server;
+    private ManagedChannel channel;
+    private LaptopServiceGrpc.LaptopServiceBlockingStub stub;
+    private int nextCreate;
+
+    @Setup(Level.Trial)
+    public void createCatalog() throws Exception {
+        Generator generator = new Generator(new Random(42));
+        catalog = new Laptop[catalogSize];
+        for (int i = 0; i < catalogSize; i++) {
+            catalog[i] = generator.NewLaptop();
+        }
+
+        // without an ID the server assigns a new one, so the requests can be reused
+        createRequests = new CreateLaptopRequest[1024];
+        for (int i = 0; i < createRequests.length; i++) {
+            Laptop laptop = generator.NewLaptop().toBuilder().setId("").build();
+            createRequests[i] = CreateLaptopRequest.newBuilder().setLaptop(laptop).build();
+        }
+
+        searchRequest = SearchLaptopRequest.newBuilder()
+                .setFilter(Filter.newBuilder()
+                        .setMaxPriceUsd(3200)
+                        .setMinCpuCores(4)
+                        .setMinCpuGhz(2.5)
+                        .setMinRam(Memory.newBuilder().setValue(8).setUnit(Memory.Unit.GIGABYTE).build())
+                        .build())
+                .build();
+        imageFolder = Files.createTempDirectory("laptop-service-benchmark");
+    }
+
+    @Setup(Level.Iteration)
+    public void startServer() throws Exception {
+        LaptopStore laptopStore = LaptopStoreBenchmark.newStore(store);
+        for (Laptop laptop : catalog) {
+            laptopStore.Save(laptop);
+        }
+
+        String serverName = InProcessServerBuilder.generateName();
+        server = new LaptopServer(InProcessServerBuilder.forName(serverName), 0, laptopStore,
+                new DiskImageStore(imageFolder.toString()), new StripedRatingStore());
+        server.start();
+        channel = InProcessChannelBuilder.forName(serverName).build();
+        stub = LaptopServiceGrpc.newBlockingStub(channel);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopServer() throws Exception {
+        channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteImageFolder() throws Exception {
+        Files.deleteIfExists(imageFolder);
+    }
+
+    @Benchmark
+    public CreateLaptopResponse createLaptop() {
+        CreateLaptopRequest request = createRequests[nextCreate++ & (createRequests.length - 1)];
+        return stub.createLaptop(request);
+    }
+
+    @Benchmark
+    public void searchLaptop(Blackhole blackhole) {
+        Iterator<SearchLaptopResponse> responses = stub.searchLaptop(searchRequest);
+        while (responses.hasNext()) {
+            blackhole.consume(responses.next());
+        }
+    }
+}
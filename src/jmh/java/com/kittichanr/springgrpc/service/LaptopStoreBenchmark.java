@@ -0,0 +1,115 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.pcbook.generated.Memory;
+import com.kittichanr.springgrpc.sample.Generator;
+import io.grpc.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded Save, Find and Search of each laptop store at several catalog sizes. The
+ * catalog is generated once per trial and loaded into a fresh store before every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LaptopStoreBenchmark {
+    private static final int SAVE_BATCH = 10000;
+
+    @Param({"in-memory", "columnar", "off-heap"})
+    public String store;
+
+    @Param({"1000", "100000"})
+    public int catalogSize;
+
+    private Laptop[] catalog;
+    private Laptop[] newLaptops;
+    private LaptopStore laptopStore;
+    private int nextNewLaptop;
+    private Filter filter;
+
+    @Setup(Level.Trial)
+    public void createCatalog() {
+        Generator generator = new Generator(new Random(42));
+        catalog = new Laptop[catalogSize];
+        for (int i = 0; i < catalogSize; i++) {
+            catalog[i] = generator.NewLaptop();
+        }
+        newLaptops = new Laptop[SAVE_BATCH];
+        for (int i = 0; i < SAVE_BATCH; i++) {
+            newLaptops[i] = generator.NewLaptop();
+        }
+
+        // the filter LaptopClient searches with, matching a small share of the catalog
+        filter = Filter.newBuilder()
+                .setMaxPriceUsd(3200)
+                .setMinCpuCores(4)
+                .setMinCpuGhz(2.5)
+                .setMinRam(Memory.newBuilder().setValue(8).setUnit(Memory.Unit.GIGABYTE).build())
+                .build();
+    }
+
+    @Setup(Level.Iteration)
+    public void loadStore() throws Exception {
+        laptopStore = newStore(store);
+        for (Laptop laptop : catalog) {
+            laptopStore.Save(laptop);
+        }
+        nextNewLaptop = 0;
+    }
+
+    /**
+     * Time to save one batch of new laptops into a store already holding the catalog.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = SAVE_BATCH)
+    @Measurement(iterations = 10, batchSize = SAVE_BATCH)
+    public void save() throws Exception {
+        laptopStore.Save(newLaptops[nextNewLaptop++]);
+    }
+
+    @Benchmark
+    public Laptop find() {
+        return laptopStore.Find(catalog[ThreadLocalRandom.current().nextInt(catalogSize)].getId());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void search(Blackhole blackhole) {
+        LaptopStream stream = laptopStore.Search(Context.ROOT, filter);
+        for (Laptop laptop = stream.Next(); laptop != null; laptop = stream.Next()) {
+            blackhole.consume(laptop);
+        }
+    }
+
+    static LaptopStore newStore(String store) {
+        return switch (store) {
+            case "in-memory" -> new InMemoryLaptopStore();
+            case "columnar" -> new ColumnarLaptopStore();
+            case "off-heap" -> new OffHeapLaptopStore();
+            default -> throw new IllegalArgumentException("unknown store: " + store);
+        };
+    }
+}
@@ -0,0 +1,150 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.springgrpc.sample.Generator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A microbenchmark of LaptopStore.Save, without the service or transport in front of it, while
+ * every thread saves into one shared store, as in a parallel import where workers insert into the
+ * same catalog. The threads draw their laptops from one shared pool of idPoolSize IDs, each thread
+ * walking the whole pool in its own random order, so with more than one thread most saves race
+ * with another thread's save of the same ID and one of them gets an AlreadyExistsException. Once a
+ * thread has been through the pool it moves on to a new, empty store.
+ * <p>
+ * Every laptop is built in setup, so the timed path is the save alone. The same benchmark runs at
+ * 1, 4 and all available threads to show how it scales with cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LaptopStoreSaveBenchmark {
+    private static final int TEMPLATES = 1024;
+
+    @Param({"in-memory", "columnar"})
+    public String store;
+
+    @Param({"8192"})
+    public int idPoolSize;
+
+    // attributes only: each thread's laptops copy these with an ID from the pool
+    private Laptop[] templates;
+    private String[] ids;
+    private volatile LaptopStore laptopStore;
+
+    @State(Scope.Thread)
+    public static class Saver {
+        private Laptop[] laptops;
+        private LaptopStore store;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void createLaptops(LaptopStoreSaveBenchmark benchmark) {
+            Random random = new Random();
+            laptops = new Laptop[benchmark.ids.length];
+            for (int i = 0; i < laptops.length; i++) {
+                laptops[i] = benchmark.templates[random.nextInt(TEMPLATES)].toBuilder()
+                        .setId(benchmark.ids[i])
+                        .build();
+            }
+            Collections.shuffle(Arrays.asList(laptops), random);
+        }
+
+        @Setup(Level.Iteration)
+        public void reset(LaptopStoreSaveBenchmark benchmark) {
+            store = benchmark.laptopStore;
+            next = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createLaptops() {
+        Generator generator = new Generator(new Random(42));
+        templates = new Laptop[TEMPLATES];
+        for (int i = 0; i < TEMPLATES; i++) {
+            templates[i] = generator.NewLaptop();
+        }
+
+        Random random = new Random(42);
+        ids = new String[idPoolSize];
+        for (int i = 0; i < idPoolSize; i++) {
+            ids[i] = new UUID(random.nextLong(), random.nextLong()).toString();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createStore() {
+        laptopStore = newStore();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean save1Thread(Saver saver) {
+        return save(saver);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean save4Threads(Saver saver) {
+        return save(saver);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean saveAllThreads(Saver saver) {
+        return save(saver);
+    }
+
+    private boolean save(Saver saver) {
+        if (saver.next == saver.laptops.length) {
+            // the threads go through the pool at the same pace, so they move on to the next store together
+            saver.next = 0;
+            replaceStore(saver.store);
+            saver.store = laptopStore;
+        }
+
+        try {
+            saver.store.Save(saver.laptops[saver.next++]);
+            return true;
+        } catch (AlreadyExistsException e) {
+            return false;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized void replaceStore(LaptopStore full) {
+        if (laptopStore == full) {
+            laptopStore = newStore();
+        }
+    }
+
+    private LaptopStore newStore() {
+        return switch (store) {
+            case "in-memory" -> new InMemoryLaptopStore();
+            case "columnar" -> new ColumnarLaptopStore();
+            default -> throw new IllegalArgumentException("unknown store: " + store);
+        };
+    }
+}
@@ -0,0 +1,182 @@
+package com.kittichanr.springgrpc.service;
+
+import com.google.protobuf.ByteString;
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.ImageInfo;
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.pcbook.generated.LaptopServiceGrpc;
+import com.kittichanr.pcbook.generated.SearchLaptopRequest;
+import com.kittichanr.pcbook.generated.SearchLaptopResponse;
+import com.kittichanr.pcbook.generated.UploadImageRequest;
+import com.kittichanr.pcbook.generated.UploadImageResponse;
+import com.kittichanr.springgrpc.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * searchLaptop and uploadImage streamed over a real loopback TCP connection with each
+ * {@link NettyTransport} profile:
+ * <ul>
+ *     <li>nio: gRPC defaults, NIO with its shared event loops;</li>
+ *     <li>epoll: native epoll with one worker thread and the pooled allocator;</li>
+ *     <li>epoll-window: as epoll, plus a fixed 4 MiB flow-control window on both ends.</li>
+ * </ul>
+ * Loopback has next to no round-trip time, so a larger window mostly shows up as fewer
+ * WINDOW_UPDATE frames here; on a high-latency link it bounds upload throughput to the window
+ * size per round trip, which this benchmark can't reproduce.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NettyTransportBenchmark {
+    @Param({"nio", "epoll", "epoll-window"})
+    public String profile;
+
+    @Param({"1000"})
+    public int catalogSize;
+
+    @Param({"1048576"})
+    public int imageSize;
+
+    private String laptopID;
+    private SearchLaptopRequest searchRequest;
+    private ByteString[] imageChunks;
+    private Path imageFolder;
+    private NettyTransport transport;
+    private LaptopServer server;
+    private ManagedChannel channel;
+    private LaptopServiceGrpc.LaptopServiceBlockingStub blockingStub;
+    private LaptopServiceGrpc.LaptopServiceStub asyncStub;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        Properties config = new Properties();
+        switch (profile) {
+            case "nio" -> {
+            }
+            case "epoll" -> {
+                config.setProperty("pcbook.transport.native", "true");
+                config.setProperty("pcbook.transport.worker-threads", "1");
+                config.setProperty("pcbook.transport.allocator", "pooled");
+            }
+            case "epoll-window" -> {
+                config.setProperty("pcbook.transport.native", "true");
+                config.setProperty("pcbook.transport.worker-threads", "1");
+                config.setProperty("pcbook.transport.allocator", "pooled");
+                config.setProperty("pcbook.transport.flow-control-window", String.valueOf(4 << 20));
+                config.setProperty("pcbook.transport.flow-control-auto-tune", "false");
+            }
+            default -> throw new IllegalArgumentException("unknown profile: " + profile);
+        }
+        LaptopServerProperties properties = new LaptopServerProperties(config);
+        transport = new NettyTransport(properties);
+
+        Generator generator = new Generator(new Random(42));
+        LaptopStore laptopStore = new ColumnarLaptopStore();
+        for (int i = 0; i < catalogSize; i++) {
+            Laptop laptop = generator.NewLaptop();
+            laptopStore.Save(laptop);
+            laptopID = laptop.getId();
+        }
+        searchRequest = SearchLaptopRequest.newBuilder()
+                .setFilter(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build())
+                .build();
+
+        byte[] image = new byte[imageSize];
+        new Random(42).nextBytes(image);
+        int chunkSize = 64 << 10;
+        imageChunks = new ByteString[(imageSize + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < imageChunks.length; i++) {
+            int offset = i * chunkSize;
+            imageChunks[i] = ByteString.copyFrom(image, offset, Math.min(chunkSize, imageSize - offset));
+        }
+        imageFolder = Files.createTempDirectory("netty-transport-benchmark");
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new LaptopServer(transport.forPort(port), port, laptopStore,
+                new DiskImageStore(imageFolder.toString()), new StripedRatingStore(), properties);
+        server.start();
+        channel = transport.forAddress("localhost", port).usePlaintext().build();
+        blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+        asyncStub = LaptopServiceGrpc.newStub(channel);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws Exception {
+        channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+        server.stop();
+        transport.close();
+        try (Stream<Path> files = Files.walk(imageFolder)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void searchLaptop(Blackhole blackhole) {
+        Iterator<SearchLaptopResponse> responses = blockingStub.searchLaptop(searchRequest);
+        while (responses.hasNext()) {
+            blackhole.consume(responses.next());
+        }
+    }
+
+    @Benchmark
+    public UploadImageResponse uploadImage() throws Exception {
+        CompletableFuture<UploadImageResponse> uploaded = new CompletableFuture<>();
+        StreamObserver<UploadImageRequest> requests = asyncStub.uploadImage(new StreamObserver<UploadImageResponse>() {
+            @Override
+            public void onNext(UploadImageResponse response) {
+                uploaded.complete(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                uploaded.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+        requests.onNext(UploadImageRequest.newBuilder()
+                .setInfo(ImageInfo.newBuilder().setLaptopId(laptopID).setImageType(".jpg").build())
+                .build());
+        for (ByteString chunk : imageChunks) {
+            requests.onNext(UploadImageRequest.newBuilder().setChunkData(chunk).build());
+        }
+        requests.onCompleted();
+        return uploaded.get(30, TimeUnit.SECONDS);
+    }
+}
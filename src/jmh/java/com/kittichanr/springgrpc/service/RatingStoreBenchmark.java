@@ -0,0 +1,64 @@
+package com.kittichanr.springgrpc.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Add throughput of the rating stores with every available thread rating at once. With one
+ * laptop all threads contend on the same entry; with more they spread over the map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+@Fork(1)
+public class RatingStoreBenchmark {
+    @Param({"in-memory", "striped"})
+    public String store;
+
+    @Param({"1", "1024"})
+    public int laptops;
+
+    private String[] laptopIDs;
+    private RatingStore ratingStore;
+
+    @Setup(Level.Trial)
+    public void createLaptopIDs() {
+        laptopIDs = new String[laptops];
+        for (int i = 0; i < laptops; i++) {
+            laptopIDs[i] = UUID.randomUUID().toString();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createStore() {
+        ratingStore = switch (store) {
+            case "in-memory" -> new InMemoryRatingStore();
+            case "striped" -> new StripedRatingStore();
+            default -> throw new IllegalArgumentException("unknown store: " + store);
+        };
+    }
+
+    @Benchmark
+    public Rating add() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return ratingStore.Add(laptopIDs[random.nextInt(laptops)], random.nextInt(1, 11));
+    }
+}
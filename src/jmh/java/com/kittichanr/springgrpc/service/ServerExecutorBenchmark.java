@@ -0,0 +1,290 @@
+package com.kittichanr.springgrpc.service;
+
+import com.google.protobuf.ByteString;
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.ImageInfo;
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.pcbook.generated.LaptopServiceGrpc;
+import com.kittichanr.pcbook.generated.SearchLaptopRequest;
+import com.kittichanr.pcbook.generated.SearchLaptopResponse;
+import com.kittichanr.pcbook.generated.UploadImageRequest;
+import com.kittichanr.pcbook.generated.UploadImageResponse;
+import com.kittichanr.springgrpc.sample.Generator;
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Many concurrent searchLaptop and uploadImage calls against a server running its callbacks on
+ * each executor mode of {@link ServerExecutors}. Every operation starts {@code concurrency}
+ * calls at once and waits for all of them. The store sleeps {@code storeLatencyMicros} for every
+ * laptop a search returns, standing in for a store that blocks on disk or on another service,
+ * which is what makes the modes differ: each blocked search holds its thread.
+ * <p>
+ * Besides the time per batch, each iteration reports the peak number of live threads and the peak
+ * heap in use while the calls were in flight, divided by the calls, as the peakThreads and
+ * heapKbPerCall secondary results, so they land in jmh-result.json with the rest. Platform threads also
+ * reserve a native stack each that the heap figure doesn't include. The virtual mode needs Java
+ * 21; on an older runtime its trials fail and the other modes still run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ServerExecutorBenchmark {
+    private static final int IMAGE_CHUNK_SIZE = 16 << 10;
+    private static final int IMAGE_CHUNKS = 4;
+
+    @Param({"default", "bounded", "virtual"})
+    public String executor;
+
+    @Param({"1000"})
+    public int concurrency;
+
+    @Param({"1000"})
+    public long storeLatencyMicros;
+
+    private Laptop[] catalog;
+    private SearchLaptopRequest searchRequest;
+    private ByteString imageChunk;
+    private Path imageFolder;
+    private LaptopServer server;
+    private ManagedChannel channel;
+    private LaptopServiceGrpc.LaptopServiceStub stub;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private long baselineHeap;
+    private long peakHeap;
+
+    /**
+     * Peaks sampled while the calls of an iteration were in flight. JMH sums EVENTS counters over
+     * the measurement iterations, so each iteration reports its share of the mean: the reported
+     * score is the average peak per iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Peaks {
+        public double peakThreads;
+        public double heapKbPerCall;
+        private int iterations;
+        private int sampledThreads;
+        private double sampledHeapKbPerCall;
+
+        @Setup(Level.Iteration)
+        public void reset(IterationParams params) {
+            iterations = params.getCount();
+            sampledThreads = 0;
+            sampledHeapKbPerCall = 0;
+            peakThreads = 0;
+            heapKbPerCall = 0;
+            ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        }
+
+        private void sample(int threads, double heapKbPerCall) {
+            sampledThreads = Math.max(sampledThreads, threads);
+            sampledHeapKbPerCall = Math.max(sampledHeapKbPerCall, heapKbPerCall);
+            this.peakThreads = (double) sampledThreads / iterations;
+            this.heapKbPerCall = sampledHeapKbPerCall / iterations;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        Generator generator = new Generator(new Random(42));
+        catalog = new Laptop[100];
+        LaptopStore laptopStore = new SlowLaptopStore(new ColumnarLaptopStore(), storeLatencyMicros);
+        for (int i = 0; i < catalog.length; i++) {
+            catalog[i] = generator.NewLaptop();
+            laptopStore.Save(catalog[i]);
+        }
+        // a handful of matches per search, each one paying the store latency
+        searchRequest = SearchLaptopRequest.newBuilder()
+                .setFilter(Filter.newBuilder().setMaxPriceUsd(1500).build())
+                .build();
+        byte[] chunk = new byte[IMAGE_CHUNK_SIZE];
+        new Random(42).nextBytes(chunk);
+        imageChunk = ByteString.copyFrom(chunk);
+        imageFolder = Files.createTempDirectory("server-executor-benchmark");
+
+        Properties config = new Properties();
+        config.setProperty("pcbook.server.executor", executor);
+        String serverName = InProcessServerBuilder.generateName();
+        server = new LaptopServer(InProcessServerBuilder.forName(serverName), 0, laptopStore,
+                new DiskImageStore(imageFolder.toString()), new StripedRatingStore(), new LaptopServerProperties(config));
+        server.start();
+        channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+        stub = LaptopServiceGrpc.newStub(channel);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws Exception {
+        if (channel != null) {
+            channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        if (server != null) {
+            server.stop();
+        }
+        if (imageFolder != null) {
+            try (Stream<Path> files = Files.walk(imageFolder)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetHeap() {
+        System.gc();
+        baselineHeap = memory.getHeapMemoryUsage().getUsed();
+        peakHeap = baselineHeap;
+    }
+
+    @Benchmark
+    public int concurrentSearches(Peaks peaks) throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(concurrency);
+        AtomicInteger received = new AtomicInteger();
+        for (int i = 0; i < concurrency; i++) {
+            stub.searchLaptop(searchRequest, new StreamObserver<SearchLaptopResponse>() {
+                @Override
+                public void onNext(SearchLaptopResponse response) {
+                    received.incrementAndGet();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    finished.countDown();
+                }
+
+                @Override
+                public void onCompleted() {
+                    finished.countDown();
+                }
+            });
+        }
+        awaitSampling(finished, peaks);
+        return received.get();
+    }
+
+    @Benchmark
+    public int concurrentUploads(Peaks peaks) throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(concurrency);
+        AtomicInteger uploaded = new AtomicInteger();
+        for (int i = 0; i < concurrency; i++) {
+            StreamObserver<UploadImageRequest> requests = stub.uploadImage(new StreamObserver<UploadImageResponse>() {
+                @Override
+                public void onNext(UploadImageResponse response) {
+                    uploaded.incrementAndGet();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    finished.countDown();
+                }
+
+                @Override
+                public void onCompleted() {
+                    finished.countDown();
+                }
+            });
+            requests.onNext(UploadImageRequest.newBuilder()
+                    .setInfo(ImageInfo.newBuilder().setLaptopId(catalog[i % catalog.length].getId()).setImageType(".jpg").build())
+                    .build());
+            for (int chunk = 0; chunk < IMAGE_CHUNKS; chunk++) {
+                requests.onNext(UploadImageRequest.newBuilder().setChunkData(imageChunk).build());
+            }
+            requests.onCompleted();
+        }
+        awaitSampling(finished, peaks);
+        return uploaded.get();
+    }
+
+    /**
+     * Waits for the calls while sampling the threads and heap they hold.
+     */
+    private void awaitSampling(CountDownLatch finished, Peaks peaks) throws InterruptedException {
+        int peakThreads = 0;
+        while (!finished.await(1, TimeUnit.MILLISECONDS)) {
+            peakThreads = Math.max(peakThreads, threads.getThreadCount());
+            peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+        }
+        // the JVM's own peak also catches threads that came and went between samples
+        peakThreads = Math.max(peakThreads, threads.getPeakThreadCount());
+        peaks.sample(peakThreads, (peakHeap - baselineHeap) / 1024.0 / concurrency);
+    }
+
+    /**
+     * Store whose searches block for a while before returning each laptop.
+     */
+    private static class SlowLaptopStore implements LaptopStore {
+        private final LaptopStore delegate;
+        private final long latencyNanos;
+
+        private SlowLaptopStore(LaptopStore delegate, long latencyMicros) {
+            this.delegate = delegate;
+            this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        }
+
+        @Override
+        public void Save(Laptop laptop) throws Exception {
+            delegate.Save(laptop);
+        }
+
+        @Override
+        public List<Exception> SaveAll(List<Laptop> laptops) {
+            return delegate.SaveAll(laptops);
+        }
+
+        @Override
+        public Laptop Find(String id) {
+            return delegate.Find(id);
+        }
+
+        @Override
+        public LaptopStream Search(Context context, Filter filter) {
+            LaptopStream stream = delegate.Search(context, filter);
+            return () -> {
+                Laptop laptop = stream.Next();
+                if (laptop != null && latencyNanos > 0) {
+                    LockSupport.parkNanos(latencyNanos);
+                }
+                return laptop;
+            };
+        }
+    }
+}
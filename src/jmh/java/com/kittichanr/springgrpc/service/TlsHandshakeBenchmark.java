@@ -0,0 +1,160 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.LaptopServiceGrpc;
+import com.kittichanr.pcbook.generated.SearchLaptopRequest;
+import com.kittichanr.pcbook.generated.SearchLaptopResponse;
+import io.grpc.ManagedChannel;
+import io.netty.handler.ssl.SslContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Rate of new mTLS connections, each doing one small call, as in a reconnect storm after a
+ * deploy. Every operation opens a channel, waits for a searchLaptop on an empty catalog and
+ * closes the channel, so it pays TCP setup, the TLS handshake and the HTTP/2 preface.
+ * <p>
+ * With resume, the client keeps its session cache between connections, so handshakes after the
+ * first resume the session; otherwise the cache is cleared after every connection and each one
+ * does a full handshake with its certificate signatures. The certificates are generated for the
+ * trial with the openssl command, as cert/gen.sh does, so it must be on the PATH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TlsHandshakeBenchmark {
+    @Param({"jdk", "openssl"})
+    public String provider;
+
+    @Param({"rsa", "ec"})
+    public String keyAlgorithm;
+
+    @Param({"true", "false"})
+    public boolean resume;
+
+    private Path certFolder;
+    private TlsCredentials serverCredentials;
+    private TlsCredentials clientCredentials;
+    private SslContext clientContext;
+    private NettyTransport transport;
+    private LaptopServer server;
+    private int port;
+    private SearchLaptopRequest searchRequest;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        certFolder = Files.createTempDirectory("tls-handshake-benchmark");
+        String newKey = keyAlgorithm.equals("rsa") ? "rsa:2048" : "ec:" + certFolder.resolve("ec.pem");
+        if (keyAlgorithm.equals("ec")) {
+            openssl("ecparam", "-name", "prime256v1", "-out", "ec.pem");
+        }
+        openssl("req", "-x509", "-newkey", newKey, "-days", "1", "-nodes", "-keyout", "ca-key.pem", "-out", "ca-cert.pem",
+                "-subj", "/CN=benchmark-ca");
+        for (String peer : List.of("server", "client")) {
+            Files.writeString(certFolder.resolve(peer + "-ext.cnf"), "subjectAltName=DNS:localhost,IP:127.0.0.1\n");
+            openssl("req", "-newkey", newKey, "-nodes", "-keyout", peer + "-key.pem", "-out", peer + "-req.pem",
+                    "-subj", "/CN=localhost");
+            openssl("x509", "-req", "-in", peer + "-req.pem", "-days", "1", "-CA", "ca-cert.pem", "-CAkey", "ca-key.pem",
+                    "-CAcreateserial", "-out", peer + "-cert.pem", "-extfile", peer + "-ext.cnf");
+        }
+
+        Properties config = new Properties();
+        config.setProperty("pcbook.tls.provider", provider);
+        LaptopServerProperties properties = new LaptopServerProperties(config);
+        serverCredentials = TlsCredentials.forServer(properties, file("server-cert.pem"), file("server-key.pem"), file("ca-cert.pem"));
+        clientCredentials = TlsCredentials.forClient(properties, file("client-cert.pem"), file("client-key.pem"), file("ca-cert.pem"));
+        clientContext = clientCredentials.getSslContext();
+        transport = new NettyTransport(properties);
+
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new LaptopServer(transport.forPort(port).sslContext(serverCredentials.getSslContext()), port,
+                new ColumnarLaptopStore(), new DiskImageStore(certFolder.toString()), new StripedRatingStore(), properties);
+        server.start();
+        searchRequest = SearchLaptopRequest.newBuilder().setFilter(Filter.getDefaultInstance()).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws Exception {
+        server.stop();
+        transport.close();
+        serverCredentials.close();
+        clientCredentials.close();
+        try (Stream<Path> files = Files.walk(certFolder)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean connect() throws InterruptedException {
+        ManagedChannel channel = transport.forAddress("localhost", port).sslContext(clientContext).build();
+        try {
+            Iterator<SearchLaptopResponse> responses = LaptopServiceGrpc.newBlockingStub(channel).searchLaptop(searchRequest);
+            return responses.hasNext();
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            if (!resume) {
+                invalidateSessions(clientContext.sessionContext());
+            }
+        }
+    }
+
+    private static void invalidateSessions(SSLSessionContext sessions) {
+        for (byte[] id : Collections.list(sessions.getIds())) {
+            SSLSession session = sessions.getSession(id);
+            if (session != null) {
+                session.invalidate();
+            }
+        }
+    }
+
+    private File file(String name) {
+        return certFolder.resolve(name).toFile();
+    }
+
+    private void openssl(String... args) throws IOException, InterruptedException {
+        String[] command = new String[args.length + 1];
+        command[0] = "openssl";
+        System.arraycopy(args, 0, command, 1, args.length);
+        Process process = new ProcessBuilder(command)
+                .directory(certFolder.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IOException("openssl " + args[0] + " failed");
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.kittichanr.springgrpc.service;
 
 public class AlreadyExistsException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
     public AlreadyExistsException(String messsage) {
-        super(messsage);
+        // it's an expected outcome mapped to a status, so skip the cost of filling in a stack
+        // trace, which dominates a rejected save when imports collide on IDs
+        super(messsage, null, false, false);
     }
 }
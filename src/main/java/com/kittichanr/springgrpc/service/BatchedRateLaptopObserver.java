@@ -0,0 +1,191 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.RateLaptopRequest;
+import com.kittichanr.pcbook.generated.RateLaptopResponse;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Request observer for rateLaptop that groups scores per laptop over a time or size window,
+ * applies each group to the rating store in one update and answers it with one response.
+ */
+public class BatchedRateLaptopObserver implements StreamObserver<RateLaptopRequest> {
+    private static final Logger logger = Logger.getLogger(BatchedRateLaptopObserver.class.getName());
+
+    private final LaptopStore laptopStore;
+    private final RatingStore ratingStore;
+    private final StreamObserver<RateLaptopResponse> responseObserver;
+    private final ScheduledExecutorService scheduler;
+    private final int maxBatchSize;
+    private final long windowMillis;
+    // not synchronized, which would pin a virtual thread to its carrier while the store blocks
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // laptops are never removed, so an ID found once doesn't need another lookup
+    private final Set<String> knownLaptopIDs;
+    private final Map<String, PendingRating> pending;
+    private int pendingScores;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    public BatchedRateLaptopObserver(LaptopStore laptopStore, RatingStore ratingStore, StreamObserver<RateLaptopResponse> responseObserver,
+                                     ScheduledExecutorService scheduler, int maxBatchSize, long windowMillis) {
+        this.laptopStore = laptopStore;
+        this.ratingStore = ratingStore;
+        this.responseObserver = responseObserver;
+        this.scheduler = scheduler;
+        this.maxBatchSize = maxBatchSize;
+        this.windowMillis = windowMillis;
+        this.knownLaptopIDs = new HashSet<>();
+        this.pending = new LinkedHashMap<>();
+    }
+
+    @Override
+    public void onNext(RateLaptopRequest request) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            if (!RatingStore.isValidScore(request.getScore())) {
+                // as for an unknown laptop, the scores accepted so far are kept
+                flush(true);
+                close();
+                responseObserver.onError(
+                        Status.INVALID_ARGUMENT
+                                .withDescription("score must be within " + RatingStore.MAX_SCORE + ": " + request.getScore())
+                                .asRuntimeException()
+                );
+                return;
+            }
+
+            String laptopId = request.getLaptopId();
+            if (!knownLaptopIDs.contains(laptopId)) {
+                if (laptopStore.Find(laptopId) == null) {
+                    // scores accepted so far are kept, as they would be without batching
+                    flush(true);
+                    close();
+                    responseObserver.onError(
+                            Status.NOT_FOUND.
+                                    withDescription("laptop ID doesn't exist")
+                                    .asRuntimeException()
+                    );
+                    return;
+                }
+                knownLaptopIDs.add(laptopId);
+            }
+
+            pending.computeIfAbsent(laptopId, id -> new PendingRating()).add(request.getScore());
+            pendingScores++;
+
+            if (pendingScores >= maxBatchSize) {
+                flush(true);
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flushWindow, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        lock.lock();
+        try {
+            logger.warning(t.getMessage());
+            if (!closed) {
+                // the call is gone, but the scores it sent still count
+                flush(false);
+                close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onCompleted() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            flush(true);
+            close();
+            responseObserver.onCompleted();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushWindow() {
+        lock.lock();
+        try {
+            scheduledFlush = null;
+            if (!closed) {
+                flush(true);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the pending scores to the rating store and, when respond is set, answers each laptop
+     * with its new rating.
+     */
+    private void flush(boolean respond) {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        for (Map.Entry<String, PendingRating> entry : pending.entrySet()) {
+            PendingRating batch = entry.getValue();
+            Rating rating = ratingStore.AddAll(entry.getKey(), batch.count, batch.sum);
+            logger.info("rated laptop: id = " + entry.getKey() + ", scores = " + batch.count);
+            if (!respond) {
+                continue;
+            }
+
+            RateLaptopResponse response = RateLaptopResponse.newBuilder()
+                    .setLaptopId(entry.getKey())
+                    .setRatedCount(rating.getCount())
+                    .setAverageScore(rating.getSum() / rating.getCount())
+                    .build();
+            responseObserver.onNext(response);
+        }
+        pending.clear();
+        pendingScores = 0;
+    }
+
+    private void close() {
+        closed = true;
+        pending.clear();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    private static class PendingRating {
+        private int count;
+        private double sum;
+
+        private void add(double score) {
+            count++;
+            sum += score;
+        }
+    }
+}
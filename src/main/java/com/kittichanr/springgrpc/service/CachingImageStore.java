@@ -0,0 +1,169 @@
+package com.kittichanr.springgrpc.service;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Image store decorator keeping recently read images in memory, up to a byte budget, and evicting
+ * the least recently used ones first. Images can be held in direct buffers to keep them off the
+ * Java heap. Concurrent reads of an image that isn't cached share a single read from the delegate.
+ */
+public class CachingImageStore implements ImageStore {
+    private final ImageStore delegate;
+    private final long maxBytes;
+    private final boolean offHeap;
+
+    // access-ordered, so iteration starts at the least recently used image
+    private final LinkedHashMap<String, ByteBuffer> entries;
+    private long usedBytes;
+    // reads in flight from the delegate, at most one per image
+    private final Map<String, CompletableFuture<ByteBuffer>> loading;
+
+    // hits count every read served without reading the delegate, including ones joining a load
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    public CachingImageStore(ImageStore delegate, long maxBytes, boolean offHeap) {
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.loading = new HashMap<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    @Override
+    public ImageWriter Open(String laptopID, String imageType) {
+        return delegate.Open(laptopID, imageType);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> Delete(String imageID) {
+        invalidate(imageID);
+        // a read racing with the delete may have cached the image again in the meantime
+        return delegate.Delete(imageID).whenComplete((deleted, throwable) -> invalidate(imageID));
+    }
+
+    @Override
+    public ImageMetaData Find(String imageID) {
+        return delegate.Find(imageID);
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> Read(String imageID) {
+        CompletableFuture<ByteBuffer> load;
+        synchronized (this) {
+            ByteBuffer cached = entries.get(imageID);
+            if (cached != null) {
+                hits.increment();
+                // each reader gets its own position and limit over the shared bytes
+                return CompletableFuture.completedFuture(cached.asReadOnlyBuffer());
+            }
+
+            load = loading.get(imageID);
+            if (load != null) {
+                hits.increment();
+                return load.thenApply(CachingImageStore::view);
+            }
+            load = new CompletableFuture<>();
+            loading.put(imageID, load);
+        }
+
+        misses.increment();
+        CompletableFuture<ByteBuffer> read;
+        try {
+            read = delegate.Read(imageID);
+        } catch (RuntimeException e) {
+            read = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<ByteBuffer> started = load;
+        read.whenComplete((imageData, throwable) -> {
+            if (throwable != null) {
+                synchronized (this) {
+                    loading.remove(imageID, started);
+                }
+                started.completeExceptionally(throwable);
+                return;
+            }
+            if (imageData == null || imageData.remaining() > maxBytes) {
+                synchronized (this) {
+                    loading.remove(imageID, started);
+                }
+                started.complete(imageData);
+                return;
+            }
+
+            // copied outside the lock, on the delegate's thread, since this is where the image is
+            // actually read from disk
+            ByteBuffer copy = offHeap ? ByteBuffer.allocateDirect(imageData.remaining()) : ByteBuffer.allocate(imageData.remaining());
+            copy.put(imageData.duplicate()).flip();
+            synchronized (this) {
+                // a delete since the load started removed it from loading, and it mustn't be cached
+                if (loading.remove(imageID, started)) {
+                    put(imageID, copy);
+                }
+            }
+            started.complete(copy);
+        });
+        return load.thenApply(CachingImageStore::view);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private synchronized void put(String imageID, ByteBuffer imageData) {
+        ByteBuffer previous = entries.put(imageID, imageData);
+        if (previous != null) {
+            usedBytes -= previous.capacity();
+        }
+        usedBytes += imageData.capacity();
+
+        Iterator<Map.Entry<String, ByteBuffer>> iterator = entries.entrySet().iterator();
+        while (usedBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, ByteBuffer> eldest = iterator.next();
+            if (eldest.getKey().equals(imageID)) {
+                continue;
+            }
+            usedBytes -= eldest.getValue().capacity();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    private static ByteBuffer view(ByteBuffer imageData) {
+        return imageData == null ? null : imageData.asReadOnlyBuffer();
+    }
+
+    private synchronized void invalidate(String imageID) {
+        loading.remove(imageID);
+        ByteBuffer removed = entries.remove(imageID);
+        if (removed != null) {
+            usedBytes -= removed.capacity();
+        }
+    }
+}
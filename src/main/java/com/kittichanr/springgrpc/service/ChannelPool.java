@@ -0,0 +1,151 @@
+package com.kittichanr.springgrpc.service;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Channel spreading calls over a fixed set of channels, such as several connections to each of
+ * several servers. Each call is pinned to the channel it was started on, so a stream stays on
+ * one connection; the next call goes to the next channel in turn, or to the one with the fewest
+ * calls still open. Channels in TRANSIENT_FAILURE are passed over while any other is usable.
+ */
+public class ChannelPool extends ManagedChannel {
+    public enum LoadBalancing {
+        ROUND_ROBIN,
+        LEAST_OUTSTANDING
+    }
+
+    private final ManagedChannel[] channels;
+    private final AtomicInteger[] outstanding;
+    private final LoadBalancing loadBalancing;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ChannelPool(List<ManagedChannel> channels, LoadBalancing loadBalancing) {
+        if (channels.isEmpty()) {
+            throw new IllegalArgumentException("a channel pool needs at least one channel");
+        }
+        this.channels = channels.toArray(new ManagedChannel[0]);
+        this.outstanding = new AtomicInteger[this.channels.length];
+        for (int i = 0; i < outstanding.length; i++) {
+            outstanding[i] = new AtomicInteger();
+        }
+        this.loadBalancing = loadBalancing;
+    }
+
+    /**
+     * Returns the number of calls started on the channel at this index and not yet closed.
+     */
+    public int getOutstanding(int channel) {
+        return outstanding[channel].get();
+    }
+
+    public int size() {
+        return channels.length;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+        int index = pick();
+        AtomicInteger counter = outstanding[index];
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(channels[index].newCall(method, callOptions)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                // counted from start to close, which every started call reaches exactly once
+                counter.incrementAndGet();
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        counter.decrementAndGet();
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            }
+        };
+    }
+
+    private int pick() {
+        // start where the last pick left off, so ties and failures rotate instead of piling up on one channel
+        int start = Math.floorMod(next.getAndIncrement(), channels.length);
+        int best = -1;
+        int fewest = Integer.MAX_VALUE;
+        for (int i = 0; i < channels.length; i++) {
+            int index = (start + i) % channels.length;
+            if (channels[index].getState(false) == ConnectivityState.TRANSIENT_FAILURE) {
+                continue;
+            }
+            if (loadBalancing == LoadBalancing.ROUND_ROBIN) {
+                return index;
+            }
+            int count = outstanding[index].get();
+            if (count < fewest) {
+                best = index;
+                fewest = count;
+            }
+        }
+        // with every channel failing, the call fails fast or waits for the channel as it would unpooled
+        return best >= 0 ? best : start;
+    }
+
+    @Override
+    public String authority() {
+        return channels[0].authority();
+    }
+
+    @Override
+    public ManagedChannel shutdown() {
+        for (ManagedChannel channel : channels) {
+            channel.shutdown();
+        }
+        return this;
+    }
+
+    @Override
+    public ManagedChannel shutdownNow() {
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow();
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        for (ManagedChannel channel : channels) {
+            if (!channel.isShutdown()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        for (ManagedChannel channel : channels) {
+            if (!channel.isTerminated()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ManagedChannel channel : channels) {
+            if (!channel.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
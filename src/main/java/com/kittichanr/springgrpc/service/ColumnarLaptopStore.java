@@ -0,0 +1,150 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.Laptop;
+import io.grpc.Context;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Laptop store that evaluates search filters against primitive columns and only touches the
+ * Laptop messages of the matching rows.
+ */
+public class ColumnarLaptopStore implements LaptopStore {
+    private static final Logger logger = Logger.getLogger(ColumnarLaptopStore.class.getName());
+
+    private final ReadWriteLock lock;
+    private final UuidOffsetMap rows;
+    private final LaptopColumns columns;
+    private Laptop[] laptops;
+
+    public ColumnarLaptopStore() {
+        lock = new ReentrantReadWriteLock();
+        rows = new UuidOffsetMap();
+        columns = new LaptopColumns();
+        laptops = new Laptop[16];
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        UUID key = ConcurrentUuidMap.parseKey(laptop.getId());
+        if (key == null) {
+            throw new IllegalArgumentException("laptop ID is not a valid UUID: " + laptop.getId());
+        }
+
+        lock.writeLock().lock();
+        try {
+            insert(key, laptop);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Exception> SaveAll(List<Laptop> batch) {
+        List<Exception> errors = new ArrayList<>(Collections.nCopies(batch.size(), null));
+        // IDs are parsed before taking the lock, which is then held once for the whole batch
+        UUID[] keys = new UUID[batch.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ConcurrentUuidMap.parseKey(batch.get(i).getId());
+            if (keys[i] == null) {
+                errors.set(i, new IllegalArgumentException("laptop ID is not a valid UUID: " + batch.get(i).getId()));
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == null) {
+                    continue;
+                }
+                try {
+                    insert(keys[i], batch.get(i));
+                } catch (AlreadyExistsException e) {
+                    errors.set(i, e);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return errors;
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        UUID key = ConcurrentUuidMap.parseKey(id);
+        if (key == null) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            long row = rows.get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            if (row == UuidOffsetMap.ABSENT) {
+                return null;
+            }
+            return laptops[(int) row];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void insert(UUID key, Laptop laptop) {
+        if (rows.get(key.getMostSignificantBits(), key.getLeastSignificantBits()) != UuidOffsetMap.ABSENT) {
+            throw new AlreadyExistsException("laptop ID already exists");
+        }
+
+        int row = columns.add(laptop);
+        if (row == laptops.length) {
+            laptops = Arrays.copyOf(laptops, row << 1);
+        }
+        laptops[row] = laptop;
+        rows.putIfAbsent(key.getMostSignificantBits(), key.getLeastSignificantBits(), row);
+    }
+
+    /**
+     * Returns the number of rows searches have checked against their filter, a measure of how
+     * much of the catalog the indexes let them skip.
+     */
+    public long getScannedRows() {
+        return columns.scannedRows();
+    }
+
+    @Override
+    public LaptopStream Search(Context ctx, Filter filter) {
+        int[] matched;
+        Laptop[] snapshot;
+
+        lock.readLock().lock();
+        try {
+            matched = columns.match(filter);
+            // rows are append-only, so the array seen here stays valid for every matched row
+            snapshot = laptops;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return new LaptopStream() {
+            private int next;
+
+            @Override
+            public Laptop Next() {
+                if (next == matched.length) {
+                    return null;
+                }
+                if (ctx.isCancelled()) {
+                    logger.info("context is canceled");
+                    return null;
+                }
+                return snapshot[matched[next++]];
+            }
+        };
+    }
+}
@@ -0,0 +1,304 @@
+package com.kittichanr.springgrpc.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.function.BinaryOperator;
+
+/**
+ * Concurrent hash map keyed by UUIDs, stored as their two 64-bit halves in primitive arrays with
+ * open addressing, so a lookup compares two longs instead of hashing and comparing a 36-char
+ * String and an entry costs no node or key object.
+ * <p>
+ * The table is split into segments; writers lock one segment, readers take no lock. A slot's key
+ * never changes once set: the key is written before the value is published, and readers check
+ * the value before the key. Removal leaves a tombstone in the slot, which is dropped when the
+ * segment is resized. Iteration is weakly consistent, like {@link java.util.concurrent.ConcurrentHashMap}.
+ */
+public class ConcurrentUuidMap<V> {
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final Object TOMBSTONE = new Object();
+    private static final int SEGMENTS = 16;
+    private static final int INITIAL_SEGMENT_CAPACITY = 8;
+
+    private final Segment[] segments;
+
+    public ConcurrentUuidMap() {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Parses an ID in the canonical 36-char UUID form, or returns null for anything else; shorter
+     * spellings accepted by {@link UUID#fromString} would otherwise alias a canonical ID.
+     */
+    public static UUID parseKey(String id) {
+        if (id == null || id.length() != 36) {
+            return null;
+        }
+        try {
+            return UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public V get(UUID key) {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        Table table = segmentFor(hash).table;
+        int mask = table.mask();
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            Object value = VALUES.getAcquire(table.values, slot);
+            if (value == null) {
+                return null;
+            }
+            if (table.mostSigBits[slot] == msb && table.leastSigBits[slot] == lsb) {
+                return value == TOMBSTONE ? null : cast(value);
+            }
+        }
+    }
+
+    /**
+     * Stores the value unless the key is present; returns the current value, or null if stored.
+     */
+    public V putIfAbsent(UUID key, V value) {
+        return update(key, value, (existing, given) -> existing);
+    }
+
+    /**
+     * Stores the value and returns the previous one, or null.
+     */
+    public V put(UUID key, V value) {
+        return update(key, value, (existing, given) -> given);
+    }
+
+    /**
+     * Stores the value if the key is absent, otherwise the result of combining the present value
+     * with it; a null result removes the key. The function runs under the segment lock. Returns
+     * the value now stored.
+     */
+    public V merge(UUID key, V value, BinaryOperator<V> remapping) {
+        Object[] stored = {value};
+        update(key, value, (existing, given) -> {
+            V merged = remapping.apply(existing, given);
+            stored[0] = merged;
+            return merged;
+        });
+        return cast(stored[0]);
+    }
+
+    /**
+     * Removes the key and returns its value, or null if it was absent.
+     */
+    public V remove(UUID key) {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            Table table = segment.table;
+            int mask = table.mask();
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                Object value = table.values[slot];
+                if (value == null) {
+                    return null;
+                }
+                if (table.mostSigBits[slot] == msb && table.leastSigBits[slot] == lsb) {
+                    if (value == TOMBSTONE) {
+                        return null;
+                    }
+                    VALUES.setRelease(table.values, slot, TOMBSTONE);
+                    segment.size--;
+                    segment.tombstones++;
+                    return cast(value);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the values: it never fails because of concurrent
+     * updates and may or may not reflect those made after it was created.
+     */
+    public Iterator<V> values() {
+        return new Iterator<V>() {
+            private int segment;
+            private Table table = segments[0].table;
+            private int slot;
+            private V next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public V next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                V value = next;
+                next = advance();
+                return value;
+            }
+
+            private V advance() {
+                while (true) {
+                    while (slot < table.values.length) {
+                        Object value = VALUES.getAcquire(table.values, slot++);
+                        if (value != null && value != TOMBSTONE) {
+                            return cast(value);
+                        }
+                    }
+                    if (++segment == segments.length) {
+                        return null;
+                    }
+                    table = segments[segment].table;
+                    slot = 0;
+                }
+            }
+        };
+    }
+
+    /**
+     * Inserts the value when the key is absent; otherwise stores what the operator returns for
+     * the present and given values; an identical result leaves the slot alone and null removes
+     * the key. Returns the value present before, or null.
+     */
+    private V update(UUID key, V value, BinaryOperator<V> whenPresent) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            Table table = segment.table;
+            int mask = table.mask();
+            int slot = hash & mask;
+            for (; ; slot = (slot + 1) & mask) {
+                Object present = table.values[slot];
+                if (present == null) {
+                    break;
+                }
+                if (table.mostSigBits[slot] == msb && table.leastSigBits[slot] == lsb) {
+                    if (present == TOMBSTONE) {
+                        // the key keeps its slot, so it can be revived in place
+                        VALUES.setRelease(table.values, slot, value);
+                        segment.size++;
+                        segment.tombstones--;
+                        return null;
+                    }
+                    V existing = cast(present);
+                    V replacement = whenPresent.apply(existing, value);
+                    if (replacement == null) {
+                        VALUES.setRelease(table.values, slot, TOMBSTONE);
+                        segment.size--;
+                        segment.tombstones++;
+                    } else if (replacement != existing) {
+                        VALUES.setRelease(table.values, slot, replacement);
+                    }
+                    return existing;
+                }
+            }
+
+            // keep used slots, tombstones included, at or below half the table
+            if ((segment.size + segment.tombstones + 1) << 1 > table.values.length) {
+                table = segment.resize();
+                slot = table.freeSlot(hash);
+            }
+            table.mostSigBits[slot] = msb;
+            table.leastSigBits[slot] = lsb;
+            VALUES.setRelease(table.values, slot, value);
+            segment.size++;
+            return null;
+        }
+    }
+
+    private Segment segmentFor(int hash) {
+        // the slot uses the low bits, so pick the segment from the high ones
+        return segments[hash >>> 28];
+    }
+
+    private static int hash(long msb, long lsb) {
+        // random UUIDs are already well mixed, but name-based or hand-made ones may not be
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+
+    private static class Segment {
+        private volatile Table table = new Table(INITIAL_SEGMENT_CAPACITY);
+        private volatile int size;
+        private int tombstones;
+
+        /**
+         * Copies the live entries into a table sized for them and publishes it; readers still on
+         * the old table see a consistent, if stale, view.
+         */
+        private Table resize() {
+            Table old = table;
+            int capacity = Math.max(INITIAL_SEGMENT_CAPACITY, Integer.highestOneBit((size + 1) << 2));
+            Table grown = new Table(capacity);
+            for (int slot = 0; slot < old.values.length; slot++) {
+                Object value = old.values[slot];
+                if (value != null && value != TOMBSTONE) {
+                    int free = grown.freeSlot(hash(old.mostSigBits[slot], old.leastSigBits[slot]));
+                    grown.mostSigBits[free] = old.mostSigBits[slot];
+                    grown.leastSigBits[free] = old.leastSigBits[slot];
+                    grown.values[free] = value;
+                }
+            }
+            tombstones = 0;
+            table = grown;
+            return grown;
+        }
+    }
+
+    private static class Table {
+        private final long[] mostSigBits;
+        private final long[] leastSigBits;
+        private final Object[] values;
+
+        private Table(int capacity) {
+            mostSigBits = new long[capacity];
+            leastSigBits = new long[capacity];
+            values = new Object[capacity];
+        }
+
+        private int mask() {
+            return values.length - 1;
+        }
+
+        private int freeSlot(int hash) {
+            int mask = mask();
+            int slot = hash & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
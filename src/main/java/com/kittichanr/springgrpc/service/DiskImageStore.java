@@ -1,33 +1,348 @@
 package com.kittichanr.springgrpc.service;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
+import com.google.protobuf.ByteString;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Image store writing images to files. All file I/O, reads included, runs on a dedicated executor
+ * and commits are made durable through an {@link FsyncBatcher}, so gRPC threads never block on disk.
+ * <p>
+ * In content-addressed mode every image is hashed while it is written and identical images share
+ * one reference-counted blob named after the hash. A duplicate upload's temporary file is deleted
+ * without ever being synced, so it usually never leaves the page cache.
+ */
+public class DiskImageStore implements ImageStore, Closeable {
+    private static final Logger logger = Logger.getLogger(DiskImageStore.class.getName());
+    private static final int DEFAULT_IO_THREADS = 4;
+    private static final String HASH_ALGORITHM = "SHA-256";
 
-public class DiskImageStore implements ImageStore {
     private String imageFolders;
-    private ConcurrentMap<String, ImageMetaData> data;
+    private ConcurrentUuidMap<ImageMetaData> data;
+    private final ConcurrentMap<String, ImageBlob> blobs;
+    private final ExecutorService ioExecutor;
+    // finishes syncs that complete while the store is closing, which ioExecutor would reject
+    private final Executor completionExecutor;
+    private final FsyncBatcher fsyncBatcher;
+    private final boolean contentAddressed;
 
     public DiskImageStore(String imageFolders) {
+        this(imageFolders, false);
+    }
+
+    public DiskImageStore(String imageFolders, boolean contentAddressed) {
+        this(imageFolders, Executors.newFixedThreadPool(DEFAULT_IO_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "image-io");
+            thread.setDaemon(true);
+            return thread;
+        }), contentAddressed);
+    }
+
+    public DiskImageStore(String imageFolders, ExecutorService ioExecutor, boolean contentAddressed) {
+        this(imageFolders, ioExecutor, new FsyncBatcher(Paths.get(imageFolders)), contentAddressed);
+    }
+
+    DiskImageStore(String imageFolders, ExecutorService ioExecutor, FsyncBatcher fsyncBatcher, boolean contentAddressed) {
         this.imageFolders = imageFolders;
-        this.data = new ConcurrentHashMap<>(0);
+        this.data = new ConcurrentUuidMap<>();
+        this.blobs = new ConcurrentHashMap<>(0);
+        this.ioExecutor = ioExecutor;
+        this.completionExecutor = command -> {
+            try {
+                ioExecutor.execute(command);
+            } catch (RejectedExecutionException e) {
+                command.run();
+            }
+        };
+        this.fsyncBatcher = fsyncBatcher;
+        this.contentAddressed = contentAddressed;
     }
 
     @Override
-    public String Save(String laptopID, String imageType, ByteArrayOutputStream imageData) throws IOException {
+    public ImageWriter Open(String laptopID, String imageType) {
         String imageID = UUID.randomUUID().toString();
+        if (contentAddressed) {
+            String tempPath = String.format("%s/%s%s.tmp", imageFolders, imageID, imageType);
+            return new DiskImageWriter(imageID, laptopID, imageType, tempPath, newDigest());
+        }
+
         String imagePath = String.format("%s/%s%s", imageFolders, imageID, imageType);
+        return new DiskImageWriter(imageID, laptopID, imageType, imagePath, null);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> Delete(String imageID) {
+        return CompletableFuture.supplyAsync(() -> {
+            UUID key = ConcurrentUuidMap.parseKey(imageID);
+            ImageMetaData metaData = key == null ? null : data.remove(key);
+            if (metaData == null) {
+                return false;
+            }
+
+            if (metaData.getHash().isEmpty()) {
+                deleteFile(metaData.getPath());
+                return true;
+            }
+
+            // the file goes inside compute so a new upload of the same content can't race with it
+            blobs.computeIfPresent(metaData.getHash(), (hash, blob) -> {
+                if (blob.release() > 0) {
+                    return blob;
+                }
+                deleteFile(blob.getPath());
+                return null;
+            });
+            return true;
+        }, ioExecutor);
+    }
+
+    @Override
+    public ImageMetaData Find(String imageID) {
+        UUID key = ConcurrentUuidMap.parseKey(imageID);
+        return key == null ? null : data.get(key);
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> Read(String imageID) {
+        ImageMetaData metaData = Find(imageID);
+        if (metaData == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // opening and mapping the file may block on disk, so it runs on the I/O executor as well
+        return CompletableFuture.supplyAsync(() -> {
+            // the mapping outlives the channel, and even the file if a concurrent Delete unlinks it
+            try (FileChannel channel = FileChannel.open(Path.of(metaData.getPath()), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ioExecutor);
+    }
+
+    /**
+     * Stops the I/O executor, including one passed to the constructor, and the fsync batcher
+     * thread. File operations already queued still run; uploads not yet committed fail.
+     */
+    @Override
+    public void close() {
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warning("image I/O didn't finish within 30s");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        fsyncBatcher.close();
+    }
+
+    private void deleteFile(String path) {
+        try {
+            Files.deleteIfExists(Path.of(path));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "cannot remove image " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " isn't available", e);
+        }
+    }
+
+    /**
+     * Appends chunks straight to the image file, so an upload holds at most its queued chunks
+     * on-heap. Every operation is chained after the previous one, which keeps chunks in order.
+     */
+    private class DiskImageWriter implements ImageWriter {
+        private final String imageID;
+        private final String laptopID;
+        private final String imageType;
+        private final String path;
+        private final MessageDigest digest;
+        private FileChannel channel;
+        private CompletableFuture<Void> tail;
+        private long size;
+        private boolean committing;
+
+        private DiskImageWriter(String imageID, String laptopID, String imageType, String path, MessageDigest digest) {
+            this.imageID = imageID;
+            this.laptopID = laptopID;
+            this.imageType = imageType;
+            this.path = path;
+            this.digest = digest;
+            this.tail = CompletableFuture.runAsync(() -> {
+                try {
+                    channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, ioExecutor);
+        }
+
+        @Override
+        public synchronized CompletableFuture<Void> Write(ByteString chunk) {
+            size += chunk.size();
+            if (digest != null) {
+                // hashed as the chunks arrive, so the hash is ready as soon as the upload ends
+                for (ByteBuffer buffer : chunk.asReadOnlyByteBufferList()) {
+                    digest.update(buffer);
+                }
+            }
+
+            tail = tail.thenRunAsync(() -> {
+                try {
+                    // the chunk's backing buffers are written as is, without copying them into a byte[]
+                    for (ByteBuffer buffer : chunk.asReadOnlyByteBufferList()) {
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, ioExecutor);
+            return tail;
+        }
+
+        @Override
+        public synchronized long Size() {
+            return size;
+        }
+
+        @Override
+        public synchronized CompletableFuture<String> Commit() {
+            committing = true;
+            CompletableFuture<String> committed;
+            if (digest != null) {
+                String hash = HexFormat.of().formatHex(digest.digest());
+                committed = tail.thenComposeAsync(ignored -> commitBlob(hash), ioExecutor);
+            } else {
+                committed = tail
+                        .thenCompose(ignored -> fsyncBatcher.sync(channel))
+                        .thenApplyAsync(ignored -> {
+                            closeChannel();
+                            data.put(UUID.fromString(imageID), new ImageMetaData(laptopID, imageType, path));
+                            return imageID;
+                        }, completionExecutor);
+            }
+            // Abort is ignored from here on, so a commit that fails has to clean up after itself
+            committed = committed.whenCompleteAsync((ignored, throwable) -> {
+                if (throwable != null) {
+                    discard();
+                }
+            }, completionExecutor);
+            tail = committed.thenApply(ignored -> null);
+            return committed;
+        }
+
+        @Override
+        public synchronized void Abort() {
+            if (committing) {
+                // the file may already be published; whether it is or not is up to the commit
+                return;
+            }
+            tail = tail.handleAsync((ignored, throwable) -> {
+                discard();
+                return null;
+            }, completionExecutor);
+        }
+
+        private void discard() {
+            if (channel != null && channel.isOpen()) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "cannot close discarded image " + path + ": " + e.getMessage());
+                }
+            }
+            deleteFile(path);
+        }
+
+        private CompletableFuture<String> commitBlob(String hash) {
+            String blobPath = String.format("%s/%s%s", imageFolders, hash, imageType);
+            ImageBlob created = new ImageBlob(hash, blobPath);
+            ImageBlob blob = blobs.compute(hash, (key, existing) -> {
+                if (existing == null) {
+                    created.retain();
+                    return created;
+                }
+                existing.retain();
+                return existing;
+            });
+
+            if (blob != created) {
+                // duplicate content: drop the temporary file and share the existing blob
+                closeChannel();
+                deleteFile(path);
+            } else {
+                try {
+                    Files.move(Path.of(path), Path.of(blobPath), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    closeChannel();
+                    deleteFile(path);
+                    blobs.remove(hash, blob);
+                    blob.getDurable().completeExceptionally(e);
+                    return blob.getDurable().thenApply(ignored -> imageID);
+                }
 
-        FileOutputStream fileOutputStream = new FileOutputStream(imagePath);
-        imageData.writeTo(fileOutputStream);
-        fileOutputStream.close();
+                // the channel still refers to the renamed file, and the batch syncs the directory after it
+                fsyncBatcher.sync(channel).whenCompleteAsync((ignored, throwable) -> {
+                    closeChannel();
+                    if (throwable != null) {
+                        // the blob was already renamed, so its file goes with its entry
+                        blobs.computeIfPresent(hash, (key, existing) -> {
+                            if (existing != blob) {
+                                return existing;
+                            }
+                            deleteFile(blobPath);
+                            return null;
+                        });
+                        blob.getDurable().completeExceptionally(throwable);
+                    } else {
+                        blob.getDurable().complete(null);
+                    }
+                }, completionExecutor);
+            }
 
-        ImageMetaData metaData = new ImageMetaData(laptopID, imageType, imagePath);
-        data.put(imageID, metaData);
+            return blob.getDurable().thenApply(ignored -> {
+                data.put(UUID.fromString(imageID), new ImageMetaData(laptopID, imageType, blob.getPath(), hash));
+                return imageID;
+            });
+        }
 
-        return imageID;
+        private void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 }
@@ -0,0 +1,597 @@
+package com.kittichanr.springgrpc.service;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.Laptop;
+import io.grpc.Context;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Laptop store that makes an in-memory delegate survive restarts. Every saved laptop is appended
+ * to a segmented log as a length-delimited protobuf and Save returns once the log is synced;
+ * saves arriving while a sync is in flight are written and synced together in the next batch.
+ * <p>
+ * Once enough segments have been filled, a compacted snapshot of the delegate is written in the
+ * background and the segments it covers are deleted. On startup the latest snapshot and the log
+ * written after it are replayed through memory-mapped reads, so the amount of log to replay is
+ * bounded by the snapshot interval rather than by the history of the catalog.
+ * <p>
+ * Replayed laptops reach the delegate through SaveAll in batches, so a batching delegate takes its
+ * lock once per batch rather than once per laptop. Each laptop is still parsed and indexed on its
+ * own, so restoring a catalog costs a sequential read plus one insert per laptop.
+ */
+public class DurableLaptopStore implements LaptopStore, Closeable {
+    private static final Logger logger = Logger.getLogger(DurableLaptopStore.class.getName());
+    private static final Pattern SEGMENT_NAME = Pattern.compile("wal-(\\d{20})\\.log");
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d{20})\\.snap");
+    private static final Filter MATCH_ALL = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+    private static final long MAX_MAPPED_BYTES = 1L << 30;
+    private static final int RESTORE_BATCH = 4096;
+    private static final PendingAppend CLOSE = new PendingAppend(null);
+
+    private final Path folder;
+    private final LaptopStore delegate;
+    private final SegmentOpener segmentOpener;
+    private final long segmentBytes;
+    private final int snapshotSegments;
+    private final BlockingQueue<PendingAppend> pending;
+    private final ExecutorService snapshotExecutor;
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile boolean directorySyncSupported = true;
+
+    // owned by the writer thread once the store is open
+    private FileChannel segment;
+    private long segmentSeq;
+    private long segmentSize;
+    private boolean segmentFailed;
+    private int segmentsSinceSnapshot;
+
+    /**
+     * Replays the snapshot and log found in the folder into the delegate, which must be empty,
+     * and opens a new log segment. A segment is rolled once it grows past segmentBytes, and a
+     * snapshot is taken every snapshotSegments rolled segments.
+     */
+    public DurableLaptopStore(Path folder, LaptopStore delegate, long segmentBytes, int snapshotSegments) throws IOException {
+        this(folder, delegate, segmentBytes, snapshotSegments,
+                path -> FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    }
+
+    DurableLaptopStore(Path folder, LaptopStore delegate, long segmentBytes, int snapshotSegments, SegmentOpener segmentOpener) throws IOException {
+        this.folder = folder;
+        this.delegate = delegate;
+        this.segmentOpener = segmentOpener;
+        this.segmentBytes = segmentBytes;
+        this.snapshotSegments = snapshotSegments;
+        this.pending = new LinkedBlockingQueue<>();
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "laptop-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Files.createDirectories(folder);
+        recover();
+        openSegment(segmentSeq);
+
+        writer = new Thread(this::run, "laptop-wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("laptop store is closed");
+        }
+
+        // the delegate rejects duplicate IDs before anything is logged; if the log write fails
+        // the laptop stays visible in memory but Save reports the error, as it isn't durable
+        delegate.Save(laptop);
+
+        PendingAppend append = new PendingAppend(encode(laptop));
+        pending.add(append);
+        await(append.future);
+    }
+
+    @Override
+    public List<Exception> SaveAll(List<Laptop> laptops) {
+        if (closed) {
+            return new ArrayList<>(Collections.nCopies(laptops.size(), new IllegalStateException("laptop store is closed")));
+        }
+
+        List<Exception> errors = new ArrayList<>(delegate.SaveAll(laptops));
+        // queue the whole batch before waiting on any of it, so the writer syncs it together
+        PendingAppend[] appends = new PendingAppend[laptops.size()];
+        for (int i = 0; i < appends.length; i++) {
+            if (errors.get(i) != null) {
+                continue;
+            }
+            try {
+                appends[i] = new PendingAppend(encode(laptops.get(i)));
+            } catch (IOException e) {
+                errors.set(i, e);
+            }
+        }
+        for (PendingAppend append : appends) {
+            if (append != null) {
+                pending.add(append);
+            }
+        }
+
+        for (int i = 0; i < appends.length; i++) {
+            if (appends[i] == null) {
+                continue;
+            }
+            try {
+                await(appends[i].future);
+            } catch (Exception e) {
+                errors.set(i, e);
+            }
+        }
+        return errors;
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        return delegate.Find(id);
+    }
+
+    @Override
+    public LaptopStream Search(Context ctx, Filter filter) {
+        return delegate.Search(ctx, filter);
+    }
+
+    public LaptopStore getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Rolls the current segment and snapshots the catalog. The returned future completes once
+     * the snapshot is durable and the segments it covers have been deleted.
+     */
+    public CompletableFuture<Void> Snapshot() {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("laptop store is closed"));
+        }
+
+        PendingAppend request = new PendingAppend(null);
+        pending.add(request);
+        return request.future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pending.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // fail anything that raced with close instead of leaving its caller waiting
+        List<PendingAppend> leftover = new ArrayList<>();
+        pending.drainTo(leftover);
+        for (PendingAppend append : leftover) {
+            append.future.completeExceptionally(new IllegalStateException("laptop store is closed"));
+        }
+
+        snapshotExecutor.shutdown();
+        segment.close();
+    }
+
+    private void run() {
+        List<PendingAppend> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            pending.drainTo(batch);
+
+            List<PendingAppend> appends = new ArrayList<>(batch.size());
+            List<PendingAppend> snapshotRequests = new ArrayList<>();
+            boolean closeRequested = false;
+            for (PendingAppend append : batch) {
+                if (append == CLOSE) {
+                    closeRequested = true;
+                } else if (append.record == null) {
+                    snapshotRequests.add(append);
+                } else {
+                    appends.add(append);
+                }
+            }
+
+            appendAll(appends);
+
+            if (!closeRequested && (!snapshotRequests.isEmpty() || segmentSize >= segmentBytes)) {
+                roll(snapshotRequests);
+            } else {
+                for (PendingAppend request : snapshotRequests) {
+                    request.future.completeExceptionally(new IllegalStateException("laptop store is closed"));
+                }
+            }
+            batch.clear();
+
+            if (closeRequested) {
+                return;
+            }
+        }
+    }
+
+    private void appendAll(List<PendingAppend> appends) {
+        if (appends.isEmpty()) {
+            return;
+        }
+        if (segmentFailed) {
+            // the last failed batch couldn't be cut off the segment, so nothing may follow it there
+            try {
+                segment.close();
+                openSegment(segmentSeq + 1);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "cannot roll laptop log: " + e.getMessage());
+                for (PendingAppend append : appends) {
+                    append.future.completeExceptionally(e);
+                }
+                return;
+            }
+        }
+
+        ByteBuffer[] buffers = new ByteBuffer[appends.size()];
+        long length = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(appends.get(i).record);
+            length += buffers[i].remaining();
+        }
+
+        try {
+            long written = 0;
+            while (written < length) {
+                written += segment.write(buffers);
+            }
+            segment.force(false);
+            segmentSize += length;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "cannot append to laptop log: " + e.getMessage());
+            discardFailedAppend();
+            for (PendingAppend append : appends) {
+                append.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (PendingAppend append : appends) {
+            append.future.complete(null);
+        }
+    }
+
+    /**
+     * Cuts a failed batch off the segment, so that a torn record doesn't hide the batches logged
+     * after it from replay and the laptops reported as failed don't come back on restart.
+     */
+    private void discardFailedAppend() {
+        try {
+            segment.truncate(segmentSize);
+            segment.position(segmentSize);
+            segment.force(false);
+        } catch (IOException e) {
+            // the next batch goes to a fresh segment instead
+            logger.log(Level.SEVERE, "cannot truncate laptop log to " + segmentSize + " bytes: " + e.getMessage());
+            segmentFailed = true;
+        }
+    }
+
+    private void roll(List<PendingAppend> snapshotRequests) {
+        try {
+            segment.close();
+            openSegment(segmentSeq + 1);
+        } catch (IOException e) {
+            // keep appending to the current segment rather than losing the log
+            logger.log(Level.SEVERE, "cannot roll laptop log: " + e.getMessage());
+            for (PendingAppend request : snapshotRequests) {
+                request.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        segmentsSinceSnapshot++;
+        if (snapshotRequests.isEmpty() && segmentsSinceSnapshot < snapshotSegments) {
+            return;
+        }
+        segmentsSinceSnapshot = 0;
+
+        // everything logged before the new segment is already in the delegate, so a snapshot
+        // taken from now on covers all earlier segments
+        long snapshotSeq = segmentSeq;
+        CompletableFuture.runAsync(() -> {
+            try {
+                writeSnapshot(snapshotSeq);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, snapshotExecutor).whenComplete((ignored, error) -> {
+            if (error != null) {
+                logger.log(Level.WARNING, "cannot snapshot laptop store: " + error.getMessage());
+            }
+            for (PendingAppend request : snapshotRequests) {
+                if (error != null) {
+                    request.future.completeExceptionally(error);
+                } else {
+                    request.future.complete(null);
+                }
+            }
+        });
+    }
+
+    private void openSegment(long seq) throws IOException {
+        segment = segmentOpener.open(segmentPath(seq));
+        segmentSeq = seq;
+        segmentSize = 0;
+        segmentFailed = false;
+        // records are only forced with their data, so the new entry has to be durable first
+        syncDirectory();
+    }
+
+    private void writeSnapshot(long seq) throws IOException {
+        Path temp = folder.resolve(String.format("snapshot-%020d.tmp", seq));
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            LaptopStream stream = delegate.Search(Context.ROOT, MATCH_ALL);
+            Laptop laptop;
+            while ((laptop = stream.Next()) != null) {
+                laptop.writeDelimitedTo(output);
+                count++;
+            }
+            output.flush();
+            channel.force(false);
+        }
+        Files.move(temp, snapshotPath(seq), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        logger.info("laptop snapshot " + seq + " written with " + count + " laptops");
+
+        for (Path file : listFiles()) {
+            Long fileSeq = sequence(SEGMENT_NAME, file);
+            if (fileSeq == null) {
+                fileSeq = sequence(SNAPSHOT_NAME, file);
+            }
+            if (fileSeq != null && fileSeq < seq) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        for (Path file : listFiles()) {
+            Long seq = sequence(SEGMENT_NAME, file);
+            if (seq != null) {
+                segments.put(seq, file);
+                continue;
+            }
+            seq = sequence(SNAPSHOT_NAME, file);
+            if (seq != null) {
+                snapshots.put(seq, file);
+                continue;
+            }
+            if (file.getFileName().toString().endsWith(".tmp")) {
+                // a snapshot that was never completed
+                Files.deleteIfExists(file);
+            }
+        }
+
+        long lastSeq = -1;
+        long laptops = 0;
+        if (!snapshots.isEmpty()) {
+            lastSeq = snapshots.lastKey();
+            Path snapshot = snapshots.lastEntry().getValue();
+            long length = Files.size(snapshot);
+            long valid = restore(snapshot);
+            if (valid != length) {
+                throw new IOException("laptop snapshot " + snapshot + " is corrupt at offset " + valid);
+            }
+        }
+
+        for (var entry : segments.entrySet()) {
+            long seq = entry.getKey();
+            Path file = entry.getValue();
+            if (seq < lastSeq) {
+                // already covered by the snapshot; left behind by a crash during cleanup
+                Files.deleteIfExists(file);
+                continue;
+            }
+
+            long length = Files.size(file);
+            long valid = restore(file);
+            if (valid != length) {
+                logger.warning("truncating laptop log " + file + " from " + length + " to " + valid + " bytes");
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                    channel.force(false);
+                }
+            }
+            segmentsSinceSnapshot++;
+            lastSeq = Math.max(lastSeq, seq);
+        }
+
+        segmentSeq = lastSeq + 1;
+        logger.info("laptop store recovered from " + folder + " with " + segmentsSinceSnapshot + " log segments");
+    }
+
+    /**
+     * Replays the file into the delegate and returns the length of its valid prefix.
+     */
+    private long restore(Path file) throws IOException {
+        List<Laptop> batch = new ArrayList<>(RESTORE_BATCH);
+        long valid = replay(file, laptop -> {
+            batch.add(laptop);
+            if (batch.size() == RESTORE_BATCH) {
+                restore(batch);
+                batch.clear();
+            }
+        });
+        restore(batch);
+        return valid;
+    }
+
+    private void restore(List<Laptop> laptops) {
+        if (laptops.isEmpty()) {
+            return;
+        }
+
+        List<Exception> errors = delegate.SaveAll(laptops);
+        for (int i = 0; i < errors.size(); i++) {
+            Exception e = errors.get(i);
+            // the snapshot may already hold laptops logged while it was being written
+            if (e != null && !(e instanceof AlreadyExistsException)) {
+                throw new IllegalStateException("cannot restore laptop " + laptops.get(i).getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Feeds every complete record of the file to the consumer and returns the length of the
+     * valid prefix; a torn write at the end leaves a partial or unparseable last record.
+     */
+    private static long replay(Path file, Consumer<Laptop> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long window = Math.min(size - position, MAX_MAPPED_BYTES);
+                boolean lastWindow = position + window == size;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+                CodedInputStream input = CodedInputStream.newInstance(buffer);
+                int consumed = 0;
+                try {
+                    while (!input.isAtEnd()) {
+                        Laptop laptop = input.readMessage(Laptop.parser(), ExtensionRegistryLite.getEmptyRegistry());
+                        if (laptop.getId().isEmpty()) {
+                            // zero-filled space past the last write
+                            return position + consumed;
+                        }
+                        consumer.accept(laptop);
+                        consumed = input.getTotalBytesRead();
+                    }
+                } catch (InvalidProtocolBufferException e) {
+                    if (lastWindow || consumed == 0) {
+                        return position + consumed;
+                    }
+                    // the record continues past this window, map again starting at it
+                }
+                position += consumed;
+            }
+            return position;
+        }
+    }
+
+    private static byte[] encode(Laptop laptop) throws IOException {
+        int size = laptop.getSerializedSize();
+        byte[] record = new byte[CodedOutputStream.computeUInt32SizeNoTag(size) + size];
+        CodedOutputStream output = CodedOutputStream.newInstance(record);
+        output.writeUInt32NoTag(size);
+        laptop.writeTo(output);
+        output.checkNoSpaceLeft();
+        return record;
+    }
+
+    private static void await(CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.toList();
+        }
+    }
+
+    private static Long sequence(Pattern pattern, Path file) {
+        Matcher matcher = pattern.matcher(file.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : null;
+    }
+
+    private Path segmentPath(long seq) {
+        return folder.resolve(String.format("wal-%020d.log", seq));
+    }
+
+    private Path snapshotPath(long seq) {
+        return folder.resolve(String.format("snapshot-%020d.snap", seq));
+    }
+
+    private void syncDirectory() {
+        if (!directorySyncSupported) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // some platforms can't open or sync a directory; file data is still forced
+            logger.log(Level.WARNING, "directory sync isn't supported for " + folder + ": " + e.getMessage());
+            directorySyncSupported = false;
+        }
+    }
+
+    /**
+     * Opens a new log segment for writing.
+     */
+    interface SegmentOpener {
+        FileChannel open(Path path) throws IOException;
+    }
+
+    private static class PendingAppend {
+        private final byte[] record;
+        private final CompletableFuture<Void> future;
+
+        private PendingAppend(byte[] record) {
+            this.record = record;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
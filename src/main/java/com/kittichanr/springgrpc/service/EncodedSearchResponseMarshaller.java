@@ -0,0 +1,233 @@
+package com.kittichanr.springgrpc.service;
+
+import com.google.protobuf.ByteString;
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.pcbook.generated.LaptopServiceGrpc;
+import com.kittichanr.pcbook.generated.SearchLaptopRequest;
+import com.kittichanr.pcbook.generated.SearchLaptopResponse;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Marshaller for SearchLaptopResponse that keeps the encoded bytes of recently streamed laptops,
+ * up to a number of entries, so a laptop returned by many searches is serialized only once.
+ * Entries are keyed by laptop ID and reused for the very laptop they were encoded from, which is
+ * what stores sharing their laptops return, or for an equal copy of it, which the memoized hash
+ * code rules out cheaply when the laptop has changed.
+ * <p>
+ * Lookups go through a concurrent map without locking. Eviction is a CLOCK sweep, approximating
+ * least recently streamed: a hit marks its entry, and once the cache is over its size, whichever
+ * thread gets the eviction lock sweeps the entries, removing unmarked ones and unmarking the rest.
+ * A new entry starts unmarked, so only laptops streamed again survive a sweep, but the sweep its
+ * own insertion triggers passes over it.
+ */
+public class EncodedSearchResponseMarshaller implements MethodDescriptor.Marshaller<SearchLaptopResponse> {
+    private final MethodDescriptor.Marshaller<SearchLaptopResponse> delegate;
+    private final ConcurrentHashMap<String, EncodedLaptop> cache;
+    private final int maxEntries;
+    private final ReentrantLock evictionLock;
+    // the CLOCK hand, only used under the eviction lock
+    private Iterator<EncodedLaptop> hand;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    public EncodedSearchResponseMarshaller(int maxEntries) {
+        this.delegate = ProtoUtils.marshaller(SearchLaptopResponse.getDefaultInstance());
+        this.cache = new ConcurrentHashMap<>();
+        this.maxEntries = maxEntries;
+        this.evictionLock = new ReentrantLock();
+        this.hand = Collections.emptyIterator();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    @Override
+    public InputStream stream(SearchLaptopResponse response) {
+        if (!response.hasLaptop()) {
+            return delegate.stream(response);
+        }
+
+        Laptop laptop = response.getLaptop();
+        EncodedLaptop encoded = cache.get(laptop.getId());
+        if (encoded != null && encoded.encodes(laptop)) {
+            if (!encoded.referenced) {
+                // written only when it changes, so hits on a hot laptop don't keep dirtying its cache line
+                encoded.referenced = true;
+            }
+            hits.increment();
+            return new EncodedInputStream(encoded.response);
+        }
+
+        misses.increment();
+        // a response holding only the laptop field has the same bytes as any response for it
+        encoded = new EncodedLaptop(laptop, SearchLaptopResponse.newBuilder().setLaptop(laptop).build().toByteString());
+        if (maxEntries < 1) {
+            return new EncodedInputStream(encoded.response);
+        }
+        cache.put(laptop.getId(), encoded);
+        while (cache.size() > maxEntries && evictionLock.tryLock()) {
+            try {
+                evict(encoded);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return new EncodedInputStream(encoded.response);
+    }
+
+    private void evict(EncodedLaptop inserted) {
+        while (cache.size() > maxEntries) {
+            if (!hand.hasNext()) {
+                hand = cache.values().iterator();
+                if (!hand.hasNext()) {
+                    return;
+                }
+            }
+            EncodedLaptop candidate = hand.next();
+            if (candidate == inserted) {
+                continue;
+            }
+            if (candidate.referenced) {
+                // a second chance: it goes on the next sweep unless it is streamed again before that
+                candidate.referenced = false;
+            } else {
+                cache.remove(candidate.laptop.getId(), candidate);
+            }
+        }
+    }
+
+    @Override
+    public SearchLaptopResponse parse(InputStream stream) {
+        return delegate.parse(stream);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns a copy of the laptop service definition whose SearchLaptop method uses this marshaller.
+     */
+    @SuppressWarnings("unchecked")
+    public ServerServiceDefinition apply(ServerServiceDefinition definition) {
+        String searchMethodName = LaptopServiceGrpc.getSearchLaptopMethod().getFullMethodName();
+        ServiceDescriptor original = definition.getServiceDescriptor();
+        ServiceDescriptor.Builder descriptorBuilder = ServiceDescriptor.newBuilder(original.getName())
+                .setSchemaDescriptor(original.getSchemaDescriptor());
+
+        List<ServerMethodDefinition<?, ?>> methods = new ArrayList<>();
+        for (ServerMethodDefinition<?, ?> method : definition.getMethods()) {
+            if (method.getMethodDescriptor().getFullMethodName().equals(searchMethodName)) {
+                ServerMethodDefinition<SearchLaptopRequest, SearchLaptopResponse> search =
+                        (ServerMethodDefinition<SearchLaptopRequest, SearchLaptopResponse>) method;
+                MethodDescriptor<SearchLaptopRequest, SearchLaptopResponse> descriptor = search.getMethodDescriptor()
+                        .toBuilder(search.getMethodDescriptor().getRequestMarshaller(), this)
+                        .build();
+                method = ServerMethodDefinition.create(descriptor, search.getServerCallHandler());
+            }
+            methods.add(method);
+            descriptorBuilder.addMethod(method.getMethodDescriptor());
+        }
+
+        // the service descriptor must hold the very same method descriptors that are bound
+        ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(descriptorBuilder.build());
+        for (ServerMethodDefinition<?, ?> method : methods) {
+            builder.addMethod(method);
+        }
+        return builder.build();
+    }
+
+    private static class EncodedLaptop {
+        private final Laptop laptop;
+        private final ByteString response;
+        private volatile boolean referenced;
+
+        private EncodedLaptop(Laptop laptop, ByteString response) {
+            this.laptop = laptop;
+            this.response = response;
+        }
+
+        private boolean encodes(Laptop other) {
+            // proto messages memoize their hash code, so a changed laptop is usually told apart
+            // without comparing its fields; only an equal copy pays for the full comparison
+            return laptop == other || (laptop.hashCode() == other.hashCode() && laptop.equals(other));
+        }
+    }
+
+    /**
+     * Lets the gRPC framer copy the cached bytes straight to the transport.
+     */
+    private static class EncodedInputStream extends InputStream implements Drainable, KnownLength {
+        private final ByteString bytes;
+        private InputStream partial;
+        private boolean drained;
+
+        private EncodedInputStream(ByteString bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int drainTo(OutputStream target) throws IOException {
+            if (partial != null) {
+                return (int) partial.transferTo(target);
+            }
+            if (drained) {
+                return 0;
+            }
+            drained = true;
+            bytes.writeTo(target);
+            return bytes.size();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return input().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return input().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (partial != null) {
+                return partial.available();
+            }
+            return drained ? 0 : bytes.size();
+        }
+
+        private InputStream input() {
+            if (partial == null) {
+                partial = drained ? InputStream.nullInputStream() : bytes.newInput();
+                drained = true;
+            }
+            return partial;
+        }
+    }
+}
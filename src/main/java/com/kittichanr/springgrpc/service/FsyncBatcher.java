@@ -0,0 +1,131 @@
+package com.kittichanr.springgrpc.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Group commit for new files in one directory. Files submitted while a batch is being synced
+ * are gathered into the next batch, which forces each file and then the directory once, so
+ * concurrent uploads share the directory sync that makes their new entries durable.
+ */
+public class FsyncBatcher implements Closeable {
+    private static final Logger logger = Logger.getLogger(FsyncBatcher.class.getName());
+    private static final PendingSync CLOSE = new PendingSync(null);
+
+    private final Path directory;
+    private final BlockingQueue<PendingSync> pending;
+    private final Thread thread;
+    private volatile boolean closed;
+    private boolean directorySyncSupported = true;
+
+    public FsyncBatcher(Path directory) {
+        this.directory = directory;
+        this.pending = new LinkedBlockingQueue<>();
+
+        thread = new Thread(this::run, "fsync-batcher-" + directory.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns a future completed once the file's content and its directory entry are on stable storage.
+     */
+    public CompletableFuture<Void> sync(FileChannel channel) {
+        PendingSync sync = new PendingSync(channel);
+        if (closed) {
+            sync.future.completeExceptionally(new IllegalStateException("fsync batcher is closed"));
+            return sync.future;
+        }
+        pending.add(sync);
+        return sync.future;
+    }
+
+    /**
+     * Finishes the syncs already queued, then stops the batcher thread. Later syncs fail.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pending.add(CLOSE);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // fail anything that raced with close instead of leaving its caller waiting
+        List<PendingSync> leftover = new ArrayList<>();
+        pending.drainTo(leftover);
+        for (PendingSync sync : leftover) {
+            sync.future.completeExceptionally(new IllegalStateException("fsync batcher is closed"));
+        }
+    }
+
+    private void run() {
+        List<PendingSync> batch = new ArrayList<>();
+        boolean closeRequested = false;
+        while (!closeRequested) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            pending.drainTo(batch);
+            closeRequested = batch.remove(CLOSE);
+
+            for (PendingSync sync : batch) {
+                try {
+                    sync.channel.force(false);
+                } catch (IOException e) {
+                    sync.future.completeExceptionally(e);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                syncDirectory();
+            }
+            for (PendingSync sync : batch) {
+                // no-op for the syncs that already failed
+                sync.future.complete(null);
+            }
+            batch.clear();
+        }
+    }
+
+    private void syncDirectory() {
+        if (!directorySyncSupported) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // some platforms can't open or sync a directory; file data is still forced
+            logger.log(Level.WARNING, "directory sync isn't supported for " + directory + ": " + e.getMessage());
+            directorySyncSupported = false;
+        }
+    }
+
+    private static class PendingSync {
+        private final FileChannel channel;
+        private final CompletableFuture<Void> future;
+
+        private PendingSync(FileChannel channel) {
+            this.channel = channel;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.kittichanr.springgrpc.service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One stored copy of an image's content, shared by every image with the same hash.
+ * The reference count is guarded by the map holding the blob.
+ */
+public class ImageBlob {
+    private final String hash;
+    private final String path;
+    private final CompletableFuture<Void> durable;
+    private int refCount;
+
+    public ImageBlob(String hash, String path) {
+        this.hash = hash;
+        this.path = path;
+        this.durable = new CompletableFuture<>();
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Completed once the blob's file is on stable storage.
+     */
+    public CompletableFuture<Void> getDurable() {
+        return durable;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public int retain() {
+        return ++refCount;
+    }
+
+    public int release() {
+        return --refCount;
+    }
+}
@@ -4,11 +4,17 @@ public class ImageMetaData {
     private String laptopID;
     private String type;
     private String path;
+    private String hash;
 
     public ImageMetaData(String laptopID, String type, String path) {
+        this(laptopID, type, path, "");
+    }
+
+    public ImageMetaData(String laptopID, String type, String path, String hash) {
         this.laptopID = laptopID;
         this.type = type;
         this.path = path;
+        this.hash = hash;
     }
 
     public String getLaptopID() {
@@ -22,4 +28,12 @@ public class ImageMetaData {
     public String getPath() {
         return path;
     }
+
+    /**
+     * Returns the content hash of the shared blob holding the image, or an empty string when the
+     * image has a file of its own.
+     */
+    public String getHash() {
+        return hash;
+    }
 }
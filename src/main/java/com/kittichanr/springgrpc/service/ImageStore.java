@@ -1,9 +1,22 @@
 package com.kittichanr.springgrpc.service;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 public interface ImageStore {
 
-    String Save(String laptopID, String imageType, ByteArrayOutputStream imageData) throws IOException;
+    ImageWriter Open(String laptopID, String imageType);
+
+    /**
+     * Removes an image, returning a future of whether it existed.
+     */
+    CompletableFuture<Boolean> Delete(String imageID);
+
+    ImageMetaData Find(String imageID);
+
+    /**
+     * Returns a future of a read-only buffer holding the whole image, or of null if the image
+     * doesn't exist.
+     */
+    CompletableFuture<ByteBuffer> Read(String imageID);
 }
@@ -0,0 +1,32 @@
+package com.kittichanr.springgrpc.service;
+
+import com.google.protobuf.ByteString;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writer for one image upload. Chunks are appended in the order they are written, and the image
+ * only becomes part of the store once it is committed. Writes run asynchronously; once one
+ * fails, the later writes and the commit fail with the same error.
+ */
+public interface ImageWriter {
+    /**
+     * Queues a chunk and returns a future completed once it has been written.
+     */
+    CompletableFuture<Void> Write(ByteString chunk);
+
+    /**
+     * Returns the number of bytes queued so far.
+     */
+    long Size();
+
+    /**
+     * Finishes the upload and returns a future of the image ID, completed once the image is durable.
+     */
+    CompletableFuture<String> Commit();
+
+    /**
+     * Drops the upload and everything written so far.
+     */
+    void Abort();
+}
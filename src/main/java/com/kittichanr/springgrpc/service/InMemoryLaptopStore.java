@@ -2,62 +2,91 @@ package com.kittichanr.springgrpc.service;
 
 import com.kittichanr.pcbook.generated.Filter;
 import com.kittichanr.pcbook.generated.Laptop;
-import com.kittichanr.pcbook.generated.Memory;
 import io.grpc.Context;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
 public class InMemoryLaptopStore implements LaptopStore {
     private static final Logger logger = Logger.getLogger(InMemoryLaptopStore.class.getName());
 
-    private ConcurrentMap<String, Laptop> data;
+    private ConcurrentUuidMap<Laptop> data;
+    private final LongAdder scannedRows = new LongAdder();
 
     public InMemoryLaptopStore() {
-        data = new ConcurrentHashMap<>(0);
+        data = new ConcurrentUuidMap<>();
     }
 
     @Override
     public void Save(Laptop laptop) throws Exception {
-        if (data.containsKey(laptop.getId())) {
+        UUID key = ConcurrentUuidMap.parseKey(laptop.getId());
+        if (key == null) {
+            throw new IllegalArgumentException("laptop ID is not a valid UUID: " + laptop.getId());
+        }
+        // a single atomic insert: of concurrent saves with the same ID exactly one succeeds;
+        // generated messages are immutable, so the instance can be shared as is
+        if (data.putIfAbsent(key, laptop) != null) {
             throw new AlreadyExistsException("laptop ID already exists");
         }
+    }
 
-        //data copy
-        Laptop other = laptop.toBuilder().build();
-        data.put(other.getId(), other);
-
+    @Override
+    public List<Exception> SaveAll(List<Laptop> laptops) {
+        // every save is a single map update already, so there is nothing to share across the batch
+        List<Exception> errors = new ArrayList<>(laptops.size());
+        for (Laptop laptop : laptops) {
+            try {
+                Save(laptop);
+                errors.add(null);
+            } catch (Exception e) {
+                errors.add(e);
+            }
+        }
+        return errors;
     }
 
     @Override
     public Laptop Find(String id) {
-        if (!data.containsKey(id)) {
-            return null;
-        }
-        Laptop other = data.get(id).toBuilder().build();
-        return other;
+        UUID key = ConcurrentUuidMap.parseKey(id);
+        return key == null ? null : data.get(key);
     }
 
     @Override
-    public void Search(Context ctx, Filter filter, LaptopStream stream) {
-        for (Map.Entry<String, Laptop> entry : data.entrySet()) {
-            if (ctx.isCancelled()) {
-                logger.info("context is canceled");
-                return;
-            }
-            try {
-                TimeUnit.SECONDS.sleep(1);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-            Laptop laptop = entry.getValue();
-            if (isQualified(filter, laptop)) {
-                stream.Send(laptop.toBuilder().build());
+    public LaptopStream Search(Context ctx, Filter filter) {
+        Iterator<Laptop> iterator = data.values();
+        return new LaptopStream() {
+            @Override
+            public Laptop Next() {
+                int scanned = 0;
+                try {
+                    while (iterator.hasNext()) {
+                        if (ctx.isCancelled()) {
+                            logger.info("context is canceled");
+                            return null;
+                        }
+                        Laptop laptop = iterator.next();
+                        scanned++;
+                        if (isQualified(filter, laptop)) {
+                            return laptop;
+                        }
+                    }
+                    return null;
+                } finally {
+                    scannedRows.add(scanned);
+                }
             }
-        }
+        };
+    }
+
+    /**
+     * Returns the number of laptops searches have checked against their filter.
+     */
+    public long getScannedRows() {
+        return scannedRows.sum();
     }
 
     private boolean isQualified(Filter filter, Laptop laptop) {
@@ -73,22 +102,9 @@ public class InMemoryLaptopStore implements LaptopStore {
             return false;
         }
 
-        if (toBit(laptop.getRam()) < toBit(filter.getMinRam())) {
+        if (MemorySize.toBit(laptop.getRam()) < MemorySize.toBit(filter.getMinRam())) {
             return false;
         }
         return true;
     }
-
-    private long toBit(Memory memory) {
-        long value = memory.getValue();
-        return switch (memory.getUnit()) {
-            case BIT -> value;
-            case BYTE -> value << 3;
-            case KILOBYTE -> value << 13;
-            case MEGABYTE -> value << 23;
-            case GIGABYTE -> value << 33;
-            case TERABYTE -> value << 43;
-            default -> 0;
-        };
-    }
 }
@@ -1,17 +1,21 @@
 package com.kittichanr.springgrpc.service;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.UUID;
 
 public class InMemoryRatingStore implements RatingStore {
-    private ConcurrentMap<String, Rating> data;
+    private ConcurrentUuidMap<Rating> data;
 
     public InMemoryRatingStore() {
-        data = new ConcurrentHashMap<>();
+        data = new ConcurrentUuidMap<>();
     }
 
     @Override
     public Rating Add(String laptopID, double score) {
-        return data.merge(laptopID, new Rating(1, score), Rating::add);
+        return data.merge(UUID.fromString(laptopID), new Rating(1, score), Rating::add);
+    }
+
+    @Override
+    public Rating AddAll(String laptopID, int count, double sum) {
+        return data.merge(UUID.fromString(laptopID), new Rating(count, sum), Rating::add);
     }
 }
@@ -0,0 +1,96 @@
+package com.kittichanr.springgrpc.service;
+
+import com.google.protobuf.ByteString;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Image store that counts uploads, the bytes they commit and the reads made from its delegate,
+ * and times commits from the call until the image is durable.
+ */
+public class InstrumentedImageStore implements ImageStore {
+    private final ImageStore delegate;
+    private final LongAdder uploads;
+    private final LongAdder uploadErrors;
+    private final LongAdder uploadAborts;
+    private final LongAdder bytesWritten;
+    private final LongAdder reads;
+    private final LongAdder readMisses;
+    private final LongAdder bytesRead;
+    private final LongAdder deletes;
+    private final LatencyHistogram commitLatency;
+
+    public InstrumentedImageStore(ImageStore delegate, MetricsRegistry registry) {
+        this.delegate = delegate;
+        this.uploads = registry.counter("image_store.uploads");
+        this.uploadErrors = registry.counter("image_store.upload_errors");
+        this.uploadAborts = registry.counter("image_store.upload_aborts");
+        this.bytesWritten = registry.counter("image_store.bytes_written");
+        this.reads = registry.counter("image_store.reads");
+        this.readMisses = registry.counter("image_store.read_misses");
+        this.bytesRead = registry.counter("image_store.bytes_read");
+        this.deletes = registry.counter("image_store.deletes");
+        this.commitLatency = registry.histogram("image_store.commit_latency_us");
+    }
+
+    @Override
+    public ImageWriter Open(String laptopID, String imageType) {
+        uploads.increment();
+        ImageWriter writer = delegate.Open(laptopID, imageType);
+        return new ImageWriter() {
+            @Override
+            public CompletableFuture<Void> Write(ByteString chunk) {
+                return writer.Write(chunk);
+            }
+
+            @Override
+            public long Size() {
+                return writer.Size();
+            }
+
+            @Override
+            public CompletableFuture<String> Commit() {
+                long startNanos = System.nanoTime();
+                return writer.Commit().whenComplete((imageID, error) -> {
+                    commitLatency.record(System.nanoTime() - startNanos);
+                    if (error == null) {
+                        bytesWritten.add(writer.Size());
+                    } else {
+                        uploadErrors.increment();
+                    }
+                });
+            }
+
+            @Override
+            public void Abort() {
+                uploadAborts.increment();
+                writer.Abort();
+            }
+        };
+    }
+
+    @Override
+    public CompletableFuture<Boolean> Delete(String imageID) {
+        deletes.increment();
+        return delegate.Delete(imageID);
+    }
+
+    @Override
+    public ImageMetaData Find(String imageID) {
+        return delegate.Find(imageID);
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> Read(String imageID) {
+        reads.increment();
+        return delegate.Read(imageID).whenComplete((imageData, error) -> {
+            if (imageData == null) {
+                readMisses.increment();
+            } else {
+                bytesRead.add(imageData.remaining());
+            }
+        });
+    }
+}
@@ -0,0 +1,107 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.Laptop;
+import io.grpc.Context;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Laptop store that counts the calls made to its delegate and times saves and searches. A
+ * search is timed from the call until its stream returns null, so it includes the time the
+ * caller spends between pulls, which is what a streaming response actually costs.
+ */
+public class InstrumentedLaptopStore implements LaptopStore {
+    private final LaptopStore delegate;
+    private final LongAdder saves;
+    private final LongAdder saveErrors;
+    private final LongAdder finds;
+    private final LongAdder findMisses;
+    private final LongAdder searches;
+    private final LongAdder searchMatches;
+    private final LatencyHistogram saveLatency;
+    private final LatencyHistogram searchLatency;
+
+    public InstrumentedLaptopStore(LaptopStore delegate, MetricsRegistry registry) {
+        this.delegate = delegate;
+        this.saves = registry.counter("laptop_store.saves");
+        this.saveErrors = registry.counter("laptop_store.save_errors");
+        this.finds = registry.counter("laptop_store.finds");
+        this.findMisses = registry.counter("laptop_store.find_misses");
+        this.searches = registry.counter("laptop_store.searches");
+        this.searchMatches = registry.counter("laptop_store.search_matches");
+        this.saveLatency = registry.histogram("laptop_store.save_latency_us");
+        this.searchLatency = registry.histogram("laptop_store.search_latency_us");
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        long startNanos = System.nanoTime();
+        saves.increment();
+        try {
+            delegate.Save(laptop);
+        } catch (Exception e) {
+            saveErrors.increment();
+            throw e;
+        } finally {
+            saveLatency.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    @Override
+    public List<Exception> SaveAll(List<Laptop> laptops) {
+        long startNanos = System.nanoTime();
+        List<Exception> errors = delegate.SaveAll(laptops);
+        saveLatency.record(System.nanoTime() - startNanos);
+        saves.add(laptops.size());
+        for (Exception error : errors) {
+            if (error != null) {
+                saveErrors.increment();
+            }
+        }
+        return errors;
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        finds.increment();
+        Laptop laptop = delegate.Find(id);
+        if (laptop == null) {
+            findMisses.increment();
+        }
+        return laptop;
+    }
+
+    @Override
+    public LaptopStream Search(Context context, Filter filter) {
+        long startNanos = System.nanoTime();
+        searches.increment();
+        LaptopStream stream = delegate.Search(context, filter);
+        return new LaptopStream() {
+            private boolean done;
+
+            @Override
+            public Laptop Next() {
+                Laptop laptop = stream.Next();
+                if (laptop != null) {
+                    searchMatches.increment();
+                } else if (!done) {
+                    done = true;
+                    searchLatency.record(System.nanoTime() - startNanos);
+                }
+                return laptop;
+            }
+
+            @Override
+            public boolean isReady() {
+                return stream.isReady();
+            }
+
+            @Override
+            public void setOnReadyHandler(Runnable handler) {
+                stream.setOnReadyHandler(handler);
+            }
+        };
+    }
+}
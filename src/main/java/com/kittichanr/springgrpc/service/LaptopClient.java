@@ -7,20 +7,27 @@ import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
-import io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import io.netty.handler.ssl.SslContext;
 
-import javax.net.ssl.SSLException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,6 +56,105 @@ public class LaptopClient {
         asyncStub = LaptopServiceGrpc.newStub(channel);
     }
 
+    public LaptopClient(ManagedChannelBuilder<?> channelBuilder) {
+        this(channelBuilder.build());
+    }
+
+    private LaptopClient(ManagedChannel channel) {
+        this.channel = channel;
+
+        blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+        asyncStub = LaptopServiceGrpc.newStub(channel);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Builds a client whose calls are spread over a pool of channels to one or more servers.
+     */
+    public static class Builder {
+        private final List<ManagedChannelBuilder<?>> targets = new ArrayList<>();
+        private final List<InetSocketAddress> addresses = new ArrayList<>();
+        private int channelsPerTarget = 1;
+        private ChannelPool.LoadBalancing loadBalancing = ChannelPool.LoadBalancing.ROUND_ROBIN;
+        private SslContext sslContext;
+        private NettyTransport transport;
+
+        private Builder() {
+        }
+
+        public Builder addTarget(String host, int port) {
+            addresses.add(InetSocketAddress.createUnresolved(host, port));
+            return this;
+        }
+
+        /**
+         * Adds a target given as a channel builder, for transports other than Netty such as
+         * in-process; it is built once per pooled channel.
+         */
+        public Builder addTarget(ManagedChannelBuilder<?> channelBuilder) {
+            targets.add(channelBuilder);
+            return this;
+        }
+
+        /**
+         * Sets how many connections are opened to every target, each with its own HTTP/2
+         * concurrency limit.
+         */
+        public Builder channelsPerTarget(int channelsPerTarget) {
+            if (channelsPerTarget < 1) {
+                throw new IllegalArgumentException("channelsPerTarget must be at least 1");
+            }
+            this.channelsPerTarget = channelsPerTarget;
+            return this;
+        }
+
+        public Builder loadBalancing(ChannelPool.LoadBalancing loadBalancing) {
+            this.loadBalancing = loadBalancing;
+            return this;
+        }
+
+        /**
+         * Connects to the host and port targets over TLS; they use plaintext without it.
+         */
+        public Builder sslContext(SslContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        public Builder transport(NettyTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public LaptopClient build() {
+            List<ManagedChannel> channels = new ArrayList<>();
+            for (InetSocketAddress address : addresses) {
+                String host = address.getHostString();
+                int port = address.getPort();
+                for (int i = 0; i < channelsPerTarget; i++) {
+                    NettyChannelBuilder channelBuilder = transport != null
+                            ? transport.forAddress(host, port)
+                            : NettyChannelBuilder.forAddress(host, port);
+                    if (sslContext != null) {
+                        channelBuilder.sslContext(sslContext);
+                    } else {
+                        channelBuilder.usePlaintext();
+                    }
+                    channels.add(channelBuilder.build());
+                }
+            }
+            for (ManagedChannelBuilder<?> target : targets) {
+                for (int i = 0; i < channelsPerTarget; i++) {
+                    channels.add(target.build());
+                }
+            }
+            return new LaptopClient(new ChannelPool(channels, loadBalancing));
+        }
+    }
+
     public void shutdown() throws InterruptedException {
         channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
     }
@@ -72,6 +178,73 @@ public class LaptopClient {
         logger.info("laptop created with ID: " + response.getId());
     }
 
+    /**
+     * Streams the laptops to the server in batches of batchSize and returns how many were saved.
+     * A batch is only sent while the call's flow-control window has room, so a slow server
+     * doesn't make the client buffer the rest of the catalog.
+     */
+    public int createLaptops(Iterator<Laptop> laptops, int batchSize) throws InterruptedException {
+        CountDownLatch finishLatch = new CountDownLatch(1);
+        AtomicInteger saved = new AtomicInteger();
+        asyncStub.withDeadlineAfter(1, TimeUnit.HOURS)
+                .createLaptops(new ClientResponseObserver<CreateLaptopsRequest, CreateLaptopsResponse>() {
+                    private ClientCallStreamObserver<CreateLaptopsRequest> requestObserver;
+                    private boolean sent;
+
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<CreateLaptopsRequest> requestStream) {
+                        requestObserver = requestStream;
+                        requestStream.setOnReadyHandler(this::sendBatches);
+                    }
+
+                    private void sendBatches() {
+                        while (!sent && requestObserver.isReady()) {
+                            CreateLaptopsRequest.Builder batch = CreateLaptopsRequest.newBuilder();
+                            while (batch.getLaptopsCount() < batchSize && laptops.hasNext()) {
+                                batch.addLaptops(laptops.next());
+                            }
+                            if (batch.getLaptopsCount() > 0) {
+                                requestObserver.onNext(batch.build());
+                            }
+                            if (!laptops.hasNext()) {
+                                sent = true;
+                                requestObserver.onCompleted();
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onNext(CreateLaptopsResponse response) {
+                        for (CreateLaptopResult result : response.getResultsList()) {
+                            if (result.getCode() == Status.Code.OK.value()) {
+                                saved.incrementAndGet();
+                            } else {
+                                logger.warning("laptop " + result.getId() + " not created: "
+                                        + Status.fromCodeValue(result.getCode()).getCode() + " " + result.getMessage());
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        logger.log(Level.SEVERE, "create laptops failed: " + t.getMessage());
+                        finishLatch.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        logger.info("create laptops completed");
+                        finishLatch.countDown();
+                    }
+                });
+
+        if (!finishLatch.await(1, TimeUnit.HOURS)) {
+            logger.warning("request cannot finish within 1 hour");
+        }
+        logger.info("created " + saved.get() + " laptops");
+        return saved.get();
+    }
+
     private void searchLaptop(Filter filter) {
         logger.info("search started");
 
@@ -161,6 +334,47 @@ public class LaptopClient {
         }
     }
 
+    public void downloadImage(String imageID, String outputFolder) {
+        logger.info("download started");
+
+        DownloadImageRequest request = DownloadImageRequest.newBuilder().setImageId(imageID).build();
+        FileOutputStream fileOutputStream = null;
+        try {
+            Iterator<DownloadImageResponse> responseIterator = blockingStub
+                    .withDeadlineAfter(1, TimeUnit.MINUTES)
+                    .downloadImage(request);
+
+            long size = 0;
+            while (responseIterator.hasNext()) {
+                DownloadImageResponse response = responseIterator.next();
+                if (response.getDataCase() == DownloadImageResponse.DataCase.INFO) {
+                    ImageInfo info = response.getInfo();
+                    logger.info("receive image info:\n" + info);
+                    fileOutputStream = new FileOutputStream(outputFolder + "/" + imageID + info.getImageType());
+                    continue;
+                }
+
+                if (fileOutputStream == null) {
+                    logger.log(Level.SEVERE, "image info wasn't received before");
+                    return;
+                }
+                response.getChunkData().writeTo(fileOutputStream);
+                size += response.getChunkData().size();
+            }
+            logger.info("image downloaded with size: " + size);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "request failed: " + e.getMessage());
+        } finally {
+            if (fileOutputStream != null) {
+                try {
+                    fileOutputStream.close();
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "cannot close image file: " + e.getMessage());
+                }
+            }
+        }
+    }
+
     public void rateLaptop(String[] laptopsIDs, double[] score) throws InterruptedException {
         CountDownLatch finishLatch = new CountDownLatch(1);
         StreamObserver<RateLaptopRequest> requestObserver = asyncStub.withDeadlineAfter(5, TimeUnit.SECONDS)
@@ -213,6 +427,25 @@ public class LaptopClient {
         client.createLaptop(laptop);
     }
 
+    public static void testCreateLaptops(LaptopClient client, Generator generator) throws InterruptedException {
+        int n = 10000;
+        Iterator<Laptop> laptops = new Iterator<Laptop>() {
+            private int created;
+
+            @Override
+            public boolean hasNext() {
+                return created < n;
+            }
+
+            @Override
+            public Laptop next() {
+                created++;
+                return generator.NewLaptop();
+            }
+        };
+        client.createLaptops(laptops, 500);
+    }
+
     public static void testSearchLaptop(LaptopClient client, Generator generator) {
         for (int i = 0; i < 10; i++) {
             Laptop laptop = generator.NewLaptop();
@@ -264,27 +497,33 @@ public class LaptopClient {
         }
     }
 
-    public static SslContext loadTLSCredentials() throws SSLException {
+    public static TlsCredentials loadTLSCredentials(LaptopServerProperties properties) throws IOException {
         File serverCACertFile = new File("cert/ca-cert.pem");
         File clientCertFile = new File("cert/client-cert.pem");
         File clientKeyFile = new File("cert/client-key.pem");
 
-        return GrpcSslContexts.forClient()
-                .keyManager(clientCertFile, clientKeyFile)
-                .trustManager(serverCACertFile)
-                .build();
+        return TlsCredentials.forClient(properties, clientCertFile, clientKeyFile, serverCACertFile);
     }
 
-    public static void main(String[] args) throws InterruptedException, SSLException {
-        SslContext sslContext = LaptopClient.loadTLSCredentials();
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("load")) {
+            LaptopLoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        LaptopServerProperties properties = LaptopServerProperties.load();
+        TlsCredentials tlsCredentials = LaptopClient.loadTLSCredentials(properties);
 
-        LaptopClient client = new LaptopClient("0.0.0.0", 8080, sslContext);
+        NettyTransport transport = new NettyTransport(properties);
+        LaptopClient client = new LaptopClient(transport.forAddress("0.0.0.0", 8080).sslContext(tlsCredentials.getSslContext()));
         Generator generator = new Generator(new Random());
 
         try {
             testRateLaptop(client, generator);
         } finally {
             client.shutdown();
+            transport.close();
+            tlsCredentials.close();
         }
     }
 }
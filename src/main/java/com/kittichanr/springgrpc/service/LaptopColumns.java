@@ -0,0 +1,192 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.Laptop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Filterable laptop attributes kept in parallel primitive arrays, one row per laptop, plus a
+ * sorted index per attribute. New rows are inserted into small sorted delta indexes. Full deltas
+ * are merged into levels of doubling size, like a binary counter, so each row is merged at most
+ * once per level and an insert costs amortized O(log n). Not thread-safe: callers guard it with
+ * their own lock.
+ */
+public class LaptopColumns {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int DELTA_CAPACITY = 1024;
+
+    private double[] priceUsd;
+    private int[] cpuCores;
+    private double[] cpuGhz;
+    private long[] ramBits;
+    private int size;
+
+    // every row is in exactly one level; each is searched through its own sorted indexes.
+    // Level i is either empty or holds DELTA_CAPACITY << i rows
+    private final List<Indexes> levels = new ArrayList<>();
+    // rows inserted one at a time on add, never more than DELTA_CAPACITY of them
+    private final Indexes delta = new Indexes();
+
+    // match runs concurrently under the callers' read locks
+    private final LongAdder scannedRows = new LongAdder();
+
+    public LaptopColumns() {
+        priceUsd = new double[INITIAL_CAPACITY];
+        cpuCores = new int[INITIAL_CAPACITY];
+        cpuGhz = new double[INITIAL_CAPACITY];
+        ramBits = new long[INITIAL_CAPACITY];
+    }
+
+    public int add(Laptop laptop) {
+        if (size == priceUsd.length) {
+            int capacity = size << 1;
+            priceUsd = Arrays.copyOf(priceUsd, capacity);
+            cpuCores = Arrays.copyOf(cpuCores, capacity);
+            cpuGhz = Arrays.copyOf(cpuGhz, capacity);
+            ramBits = Arrays.copyOf(ramBits, capacity);
+        }
+
+        int row = size;
+        priceUsd[row] = laptop.getPriceUsd();
+        cpuCores[row] = laptop.getCpu().getNumberCores();
+        cpuGhz[row] = laptop.getCpu().getMinGhz();
+        ramBits[row] = MemorySize.toBit(laptop.getRam());
+        size++;
+
+        delta.price.add(SortedColumnIndex.sortableKey(priceUsd[row]), row);
+        delta.cpuCores.add(cpuCores[row], row);
+        delta.cpuGhz.add(SortedColumnIndex.sortableKey(cpuGhz[row]), row);
+        delta.ram.add(ramBits[row], row);
+
+        if (delta.size() == DELTA_CAPACITY) {
+            mergeDelta();
+        }
+        return row;
+    }
+
+    private void mergeDelta() {
+        // a level that is already full takes the carry and passes both on to the next level, so
+        // merges only ever join equal-sized runs
+        Indexes carry = delta;
+        for (int level = 0; ; level++) {
+            if (level == levels.size()) {
+                levels.add(new Indexes());
+            }
+            Indexes target = levels.get(level);
+            boolean empty = target.size() == 0;
+            target.merge(carry);
+            if (empty) {
+                return;
+            }
+            carry = target;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of rows all matches so far have checked against their filter.
+     */
+    public long scannedRows() {
+        return scannedRows.sum();
+    }
+
+    /**
+     * Returns the rows matching the filter. The scan is driven by the index of the most
+     * selective predicate, so its cost follows the size of that slice rather than the store.
+     */
+    public int[] match(Filter filter) {
+        double maxPriceUsd = filter.getMaxPriceUsd();
+        int minCpuCores = filter.getMinCpuCores();
+        double minCpuGhz = filter.getMinCpuGhz();
+        long minRamBits = MemorySize.toBit(filter.getMinRam());
+
+        Matches matches = new Matches();
+        for (Indexes level : levels) {
+            match(level, matches, maxPriceUsd, minCpuCores, minCpuGhz, minRamBits);
+        }
+        match(delta, matches, maxPriceUsd, minCpuCores, minCpuGhz, minRamBits);
+        return Arrays.copyOf(matches.rows, matches.count);
+    }
+
+    private void match(Indexes indexes, Matches matches,
+                       double maxPriceUsd, int minCpuCores, double minCpuGhz, long minRamBits) {
+        // every predicate is one-sided, so binary search gives its exact selectivity
+        int indexedSize = indexes.size();
+        SortedColumnIndex driver = indexes.price;
+        int from = 0;
+        int to = indexes.price.upperBound(SortedColumnIndex.sortableKey(maxPriceUsd));
+
+        int cpuCoresFrom = indexes.cpuCores.lowerBound(minCpuCores);
+        if (indexedSize - cpuCoresFrom < to - from) {
+            driver = indexes.cpuCores;
+            from = cpuCoresFrom;
+            to = indexedSize;
+        }
+
+        int cpuGhzFrom = indexes.cpuGhz.lowerBound(SortedColumnIndex.sortableKey(minCpuGhz));
+        if (indexedSize - cpuGhzFrom < to - from) {
+            driver = indexes.cpuGhz;
+            from = cpuGhzFrom;
+            to = indexedSize;
+        }
+
+        int ramFrom = indexes.ram.lowerBound(minRamBits);
+        if (indexedSize - ramFrom < to - from) {
+            driver = indexes.ram;
+            from = ramFrom;
+            to = indexedSize;
+        }
+
+        scannedRows.add(to - from);
+        for (int position = from; position < to; position++) {
+            int row = driver.row(position);
+            if (isQualified(row, maxPriceUsd, minCpuCores, minCpuGhz, minRamBits)) {
+                matches.add(row);
+            }
+        }
+    }
+
+    private boolean isQualified(int row, double maxPriceUsd, int minCpuCores, double minCpuGhz, long minRamBits) {
+        return priceUsd[row] <= maxPriceUsd
+                && cpuCores[row] >= minCpuCores
+                && cpuGhz[row] >= minCpuGhz
+                && ramBits[row] >= minRamBits;
+    }
+
+    private static class Indexes {
+        final SortedColumnIndex price = new SortedColumnIndex();
+        final SortedColumnIndex cpuCores = new SortedColumnIndex();
+        final SortedColumnIndex cpuGhz = new SortedColumnIndex();
+        final SortedColumnIndex ram = new SortedColumnIndex();
+
+        int size() {
+            return price.size();
+        }
+
+        void merge(Indexes other) {
+            price.merge(other.price);
+            cpuCores.merge(other.cpuCores);
+            cpuGhz.merge(other.cpuGhz);
+            ram.merge(other.ram);
+        }
+    }
+
+    private static class Matches {
+        int[] rows = new int[INITIAL_CAPACITY];
+        int count;
+
+        void add(int row) {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count << 1);
+            }
+            rows[count++] = row;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package com.kittichanr.springgrpc.service;
+
+import com.google.protobuf.ByteString;
+import com.kittichanr.pcbook.generated.*;
+import com.kittichanr.springgrpc.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.stub.StreamObserver;
+import io.netty.handler.ssl.SslContext;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Load generator driving LaptopServer with a weighted mix of RPCs over several channels through
+ * the async stub, and reporting throughput and latency percentiles per RPC.
+ * <p>
+ * With a target QPS the load is open: requests are issued on a fixed schedule, at most
+ * {@code concurrency} at a time, and latency is measured from the scheduled start, so a server
+ * that falls behind shows up in the percentiles instead of silently lowering the load. Without
+ * one, {@code concurrency} requests are kept in flight back to back.
+ * <p>
+ * Options are {@code --name=value}: target (host:port), tls, channels, concurrency, qps,
+ * duration and warmup (seconds), mix (e.g. create=50,search=20,upload=10,rate=20), laptops
+ * (catalog created before the run), image-size, report-interval (seconds), timeout (seconds).
+ */
+public class LaptopLoadGenerator {
+    private static final Logger logger = Logger.getLogger(LaptopLoadGenerator.class.getName());
+    private static final int IMAGE_CHUNK_SIZE = 16 << 10;
+
+    enum Rpc {
+        CREATE("create"), SEARCH("search"), UPLOAD("upload"), RATE("rate");
+
+        private final String option;
+
+        Rpc(String option) {
+            this.option = option;
+        }
+    }
+
+    private final Options options;
+    private final List<ManagedChannel> channels;
+    private final LaptopServiceGrpc.LaptopServiceStub[] stubs;
+    private final AtomicInteger nextStub;
+    private final Map<Rpc, Stats> stats;
+    private final Rpc[] mix;
+    private final int[] cumulativeWeights;
+    private final Semaphore inFlight;
+
+    private CreateLaptopRequest[] createRequests;
+    private String[] laptopIDs;
+    private SearchLaptopRequest searchRequest;
+    private ByteString image;
+    private volatile long stopNanos;
+
+    public LaptopLoadGenerator(Options options, SslContext sslContext, NettyTransport transport) {
+        this.options = options;
+        this.channels = new ArrayList<>();
+        this.stubs = new LaptopServiceGrpc.LaptopServiceStub[options.channels];
+        for (int i = 0; i < options.channels; i++) {
+            ManagedChannel channel = sslContext != null
+                    ? transport.forAddress(options.host, options.port).sslContext(sslContext).build()
+                    : transport.forAddress(options.host, options.port).usePlaintext().build();
+            channels.add(channel);
+            stubs[i] = LaptopServiceGrpc.newStub(channel);
+        }
+        this.nextStub = new AtomicInteger();
+        this.inFlight = new Semaphore(options.concurrency);
+
+        this.stats = new EnumMap<>(Rpc.class);
+        List<Rpc> rpcs = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        int total = 0;
+        for (Rpc rpc : Rpc.values()) {
+            stats.put(rpc, new Stats());
+            int weight = options.mix.getOrDefault(rpc, 0);
+            if (weight > 0) {
+                total += weight;
+                rpcs.add(rpc);
+                weights.add(total);
+            }
+        }
+        if (rpcs.isEmpty()) {
+            throw new IllegalArgumentException("the RPC mix is empty");
+        }
+        this.mix = rpcs.toArray(new Rpc[0]);
+        this.cumulativeWeights = weights.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Creates the catalog the search, upload and rate RPCs work on, runs the warmup and the
+     * measured load, and prints the final report.
+     */
+    public void run() throws InterruptedException {
+        prepare();
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            if (options.warmupSeconds > 0) {
+                logger.info("warming up for " + options.warmupSeconds + "s");
+                drive(options.warmupSeconds);
+                for (Stats rpcStats : stats.values()) {
+                    rpcStats.reset();
+                }
+            }
+
+            logger.info("running load for " + options.durationSeconds + "s");
+            long startNanos = System.nanoTime();
+            reporter.scheduleAtFixedRate(this::reportInterval,
+                    options.reportIntervalSeconds, options.reportIntervalSeconds, TimeUnit.SECONDS);
+            drive(options.durationSeconds);
+            reporter.shutdownNow();
+            report(System.nanoTime() - startNanos);
+        } finally {
+            reporter.shutdownNow();
+        }
+    }
+
+    public void shutdown() throws InterruptedException {
+        for (ManagedChannel channel : channels) {
+            channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private void prepare() {
+        Generator generator = new Generator(new Random());
+
+        // without an ID the server assigns a new one, so create requests can be reused
+        createRequests = new CreateLaptopRequest[1024];
+        for (int i = 0; i < createRequests.length; i++) {
+            Laptop laptop = generator.NewLaptop().toBuilder().setId("").build();
+            createRequests[i] = CreateLaptopRequest.newBuilder().setLaptop(laptop).build();
+        }
+
+        laptopIDs = new String[options.laptops];
+        LaptopServiceGrpc.LaptopServiceBlockingStub blockingStub = LaptopServiceGrpc.newBlockingStub(channels.get(0));
+        for (int i = 0; i < options.laptops; i++) {
+            Laptop laptop = generator.NewLaptop();
+            blockingStub.withDeadlineAfter(options.timeoutSeconds, TimeUnit.SECONDS)
+                    .createLaptop(CreateLaptopRequest.newBuilder().setLaptop(laptop).build());
+            laptopIDs[i] = laptop.getId();
+        }
+        logger.info("created " + options.laptops + " laptops to search, rate and upload images for");
+
+        searchRequest = SearchLaptopRequest.newBuilder()
+                .setFilter(Filter.newBuilder()
+                        .setMaxPriceUsd(3200)
+                        .setMinCpuCores(4)
+                        .setMinCpuGhz(2.5)
+                        .setMinRam(Memory.newBuilder().setValue(8).setUnit(Memory.Unit.GIGABYTE).build())
+                        .build())
+                .build();
+
+        byte[] imageBytes = new byte[options.imageSize];
+        new Random().nextBytes(imageBytes);
+        image = ByteString.copyFrom(imageBytes);
+    }
+
+    private void drive(long seconds) throws InterruptedException {
+        stopNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        if (options.qps > 0) {
+            driveOpen();
+        } else {
+            for (int i = 0; i < options.concurrency; i++) {
+                inFlight.acquire();
+                issue(System.nanoTime(), true);
+            }
+        }
+
+        // wait for what is still in flight
+        inFlight.acquire(options.concurrency);
+        inFlight.release(options.concurrency);
+    }
+
+    private void driveOpen() throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / options.qps;
+        long next = System.nanoTime();
+        while (next < stopNanos) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            // blocking here delays later requests too, but their latency still counts from their schedule
+            inFlight.acquire();
+            issue(next, false);
+            next += intervalNanos;
+        }
+    }
+
+    /**
+     * Starts one RPC of the mix. In closed-loop mode its completion starts the next one until
+     * the run is over; in either mode it releases its in-flight permit when done.
+     */
+    private void issue(long startNanos, boolean closedLoop) {
+        Rpc rpc = pick();
+        LaptopServiceGrpc.LaptopServiceStub stub = stubs[Math.floorMod(nextStub.getAndIncrement(), stubs.length)]
+                .withDeadlineAfter(options.timeoutSeconds, TimeUnit.SECONDS);
+        Runnable done = () -> {
+            if (closedLoop && System.nanoTime() < stopNanos) {
+                issue(System.nanoTime(), true);
+            } else {
+                inFlight.release();
+            }
+        };
+        Completion completion = new Completion(stats.get(rpc), startNanos, done);
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (rpc) {
+            case CREATE -> stub.createLaptop(createRequests[random.nextInt(createRequests.length)], completion.observer());
+            case SEARCH -> stub.searchLaptop(searchRequest, completion.observer());
+            case UPLOAD -> {
+                StreamObserver<UploadImageRequest> requestObserver = stub.uploadImage(completion.observer());
+                requestObserver.onNext(UploadImageRequest.newBuilder()
+                        .setInfo(ImageInfo.newBuilder()
+                                .setLaptopId(laptopIDs[random.nextInt(laptopIDs.length)])
+                                .setImageType(".jpg")
+                                .build())
+                        .build());
+                for (int offset = 0; offset < image.size(); offset += IMAGE_CHUNK_SIZE) {
+                    requestObserver.onNext(UploadImageRequest.newBuilder()
+                            .setChunkData(image.substring(offset, Math.min(image.size(), offset + IMAGE_CHUNK_SIZE)))
+                            .build());
+                }
+                requestObserver.onCompleted();
+            }
+            case RATE -> {
+                StreamObserver<RateLaptopRequest> requestObserver = stub.rateLaptop(completion.observer());
+                requestObserver.onNext(RateLaptopRequest.newBuilder()
+                        .setLaptopId(laptopIDs[random.nextInt(laptopIDs.length)])
+                        .setScore(random.nextInt(1, 11))
+                        .build());
+                requestObserver.onCompleted();
+            }
+        }
+    }
+
+    private Rpc pick() {
+        int ticket = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (ticket < cumulativeWeights[i]) {
+                return mix[i];
+            }
+        }
+        return mix[mix.length - 1];
+    }
+
+    private void reportInterval() {
+        StringBuilder line = new StringBuilder("interval:");
+        for (Rpc rpc : mix) {
+            Histogram interval = stats.get(rpc).interval();
+            line.append(String.format(Locale.ROOT, " %s %.1f/s p99 %.2fms;", rpc.option,
+                    interval.getTotalCount() / (double) options.reportIntervalSeconds,
+                    interval.getValueAtPercentile(99) / 1000.0));
+        }
+        System.out.println(line);
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf(Locale.ROOT, "%-8s %10s %8s %10s %9s %9s %9s %9s %9s%n",
+                "rpc", "count", "errors", "rps", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Rpc rpc : mix) {
+            Stats rpcStats = stats.get(rpc);
+            rpcStats.interval();
+            Histogram total = rpcStats.total;
+            System.out.printf(Locale.ROOT, "%-8s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    rpc.option,
+                    total.getTotalCount(),
+                    rpcStats.errors.sum(),
+                    total.getTotalCount() / seconds,
+                    total.getValueAtPercentile(50) / 1000.0,
+                    total.getValueAtPercentile(90) / 1000.0,
+                    total.getValueAtPercentile(99) / 1000.0,
+                    total.getValueAtPercentile(99.9) / 1000.0,
+                    total.getMaxValue() / 1000.0);
+        }
+    }
+
+    /**
+     * Latencies of one RPC in microseconds, errors included, recorded from any thread.
+     */
+    private static class Stats {
+        private final Recorder recorder = new Recorder(3);
+        private final LongAdder errors = new LongAdder();
+        private Histogram total = new Histogram(3);
+        private Histogram recycled;
+
+        private synchronized Histogram interval() {
+            Histogram interval = recorder.getIntervalHistogram(recycled);
+            total.add(interval);
+            recycled = interval;
+            return interval;
+        }
+
+        private synchronized void reset() {
+            recorder.reset();
+            errors.reset();
+            total = new Histogram(3);
+        }
+    }
+
+    private static class Completion {
+        private final Stats stats;
+        private final long startNanos;
+        private final Runnable done;
+
+        private Completion(Stats stats, long startNanos, Runnable done) {
+            this.stats = stats;
+            this.startNanos = startNanos;
+            this.done = done;
+        }
+
+        private <T> StreamObserver<T> observer() {
+            return new StreamObserver<T>() {
+                @Override
+                public void onNext(T response) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    stats.errors.increment();
+                    finish();
+                }
+
+                @Override
+                public void onCompleted() {
+                    finish();
+                }
+            };
+        }
+
+        private void finish() {
+            stats.recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+            done.run();
+        }
+    }
+
+    public static class Options {
+        private String host = "0.0.0.0";
+        private int port = 8080;
+        private boolean tls = true;
+        private int channels = 4;
+        private int concurrency = 64;
+        private int qps = 0;
+        private long durationSeconds = 60;
+        private long warmupSeconds = 10;
+        private Map<Rpc, Integer> mix = new EnumMap<>(Map.of(Rpc.CREATE, 40, Rpc.SEARCH, 20, Rpc.UPLOAD, 10, Rpc.RATE, 30));
+        private int laptops = 1000;
+        private int imageSize = 64 << 10;
+        private long reportIntervalSeconds = 10;
+        private long timeoutSeconds = 10;
+
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("expected --name=value but got " + arg);
+                }
+                String name = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                switch (name) {
+                    case "target" -> {
+                        options.host = value.substring(0, value.lastIndexOf(':'));
+                        options.port = Integer.parseInt(value.substring(value.lastIndexOf(':') + 1));
+                    }
+                    case "tls" -> options.tls = Boolean.parseBoolean(value);
+                    case "channels" -> options.channels = Integer.parseInt(value);
+                    case "concurrency" -> options.concurrency = Integer.parseInt(value);
+                    case "qps" -> options.qps = Integer.parseInt(value);
+                    case "duration" -> options.durationSeconds = Long.parseLong(value);
+                    case "warmup" -> options.warmupSeconds = Long.parseLong(value);
+                    case "mix" -> options.mix = parseMix(value);
+                    case "laptops" -> options.laptops = Integer.parseInt(value);
+                    case "image-size" -> options.imageSize = Integer.parseInt(value);
+                    case "report-interval" -> options.reportIntervalSeconds = Long.parseLong(value);
+                    case "timeout" -> options.timeoutSeconds = Long.parseLong(value);
+                    default -> throw new IllegalArgumentException("unknown option: " + name);
+                }
+            }
+            return options;
+        }
+
+        private static Map<Rpc, Integer> parseMix(String value) {
+            Map<Rpc, Integer> mix = new EnumMap<>(Rpc.class);
+            for (String entry : value.split(",")) {
+                String[] parts = entry.split("=");
+                Rpc rpc = null;
+                for (Rpc candidate : Rpc.values()) {
+                    if (candidate.option.equals(parts[0].trim())) {
+                        rpc = candidate;
+                    }
+                }
+                if (rpc == null || parts.length != 2) {
+                    throw new IllegalArgumentException("invalid mix entry: " + entry);
+                }
+                mix.put(rpc, Integer.parseInt(parts[1].trim()));
+            }
+            return mix;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        // the load runs over the same transport and TLS settings as the server it targets
+        LaptopServerProperties properties = LaptopServerProperties.load();
+        TlsCredentials tlsCredentials = options.tls ? LaptopClient.loadTLSCredentials(properties) : null;
+
+        NettyTransport transport = new NettyTransport(properties);
+        LaptopLoadGenerator generator = new LaptopLoadGenerator(options,
+                tlsCredentials != null ? tlsCredentials.getSslContext() : null, transport);
+        try {
+            generator.run();
+        } finally {
+            generator.shutdown();
+            transport.close();
+            if (tlsCredentials != null) {
+                tlsCredentials.close();
+            }
+        }
+    }
+}
@@ -1,17 +1,21 @@
 package com.kittichanr.springgrpc.service;
 
+import io.grpc.ManagedChannel;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
-import io.grpc.netty.GrpcSslContexts;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
 import io.grpc.netty.NettyServerBuilder;
 import io.grpc.protobuf.services.ProtoReflectionService;
-import io.netty.handler.ssl.ClientAuth;
 import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
 
-import javax.net.ssl.SSLException;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -21,6 +25,7 @@ public class LaptopServer {
 
     private final int port;
     private final Server server;
+    private final ExecutorService executor;
 
     public LaptopServer(int port, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore) {
         this(ServerBuilder.forPort(port), port, laptopStore, imageStore, ratingStore);
@@ -31,14 +36,67 @@ public class LaptopServer {
     }
 
     public LaptopServer(ServerBuilder serverBuilder, int port, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore) {
+        this(serverBuilder, port, laptopStore, imageStore, ratingStore, LaptopServerProperties.defaults());
+    }
+
+    public LaptopServer(ServerBuilder serverBuilder, int port, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore, LaptopServerProperties properties) {
         this.port = port;
-        LaptopService laptopService = new LaptopService(laptopStore, imageStore, ratingStore);
+        MetricsRegistry metrics = null;
+        if (properties.getBoolean("pcbook.metrics.enabled", false)) {
+            metrics = new MetricsRegistry();
+            registerStoreGauges(metrics, laptopStore, imageStore);
+            laptopStore = new InstrumentedLaptopStore(laptopStore, metrics);
+            imageStore = new InstrumentedImageStore(imageStore, metrics);
+        }
+
+        LaptopService laptopService = new LaptopService(laptopStore, imageStore, ratingStore, properties);
+        ServerServiceDefinition laptopServiceDefinition = laptopService.bindService();
+        if (properties.getBoolean("pcbook.search.encoded-cache.enabled", false)) {
+            EncodedSearchResponseMarshaller marshaller = new EncodedSearchResponseMarshaller(
+                    properties.getInt("pcbook.search.encoded-cache.max-entries", 10000));
+            laptopServiceDefinition = marshaller.apply(laptopServiceDefinition);
+            if (metrics != null) {
+                metrics.gauge("search_cache.hits", marshaller::getHits);
+                metrics.gauge("search_cache.misses", marshaller::getMisses);
+            }
+        }
+        executor = ServerExecutors.create(properties);
+        if (executor != null) {
+            serverBuilder.executor(executor);
+        }
+        if (metrics != null) {
+            laptopServiceDefinition = ServerInterceptors.intercept(laptopServiceDefinition, new MetricsServerInterceptor(metrics));
+            serverBuilder.addService(new MetricsService(metrics));
+        }
         server = serverBuilder
-                .addService(laptopService)
+                .addService(laptopServiceDefinition)
                 .addService(ProtoReflectionService.newInstance())
                 .build();
     }
 
+    /**
+     * Exposes the counts the stores already keep themselves, read only when metrics are requested.
+     */
+    private static void registerStoreGauges(MetricsRegistry metrics, LaptopStore laptopStore, ImageStore imageStore) {
+        if (laptopStore instanceof DurableLaptopStore durableLaptopStore) {
+            laptopStore = durableLaptopStore.getDelegate();
+        }
+        if (laptopStore instanceof ColumnarLaptopStore columnarLaptopStore) {
+            metrics.gauge("laptop_store.scanned_rows", columnarLaptopStore::getScannedRows);
+        } else if (laptopStore instanceof OffHeapLaptopStore offHeapLaptopStore) {
+            metrics.gauge("laptop_store.scanned_rows", offHeapLaptopStore::getScannedRows);
+        } else if (laptopStore instanceof InMemoryLaptopStore inMemoryLaptopStore) {
+            metrics.gauge("laptop_store.scanned_rows", inMemoryLaptopStore::getScannedRows);
+        }
+
+        if (imageStore instanceof CachingImageStore cachingImageStore) {
+            metrics.gauge("image_cache.hits", cachingImageStore::getHits);
+            metrics.gauge("image_cache.misses", cachingImageStore::getMisses);
+            metrics.gauge("image_cache.evictions", cachingImageStore::getEvictions);
+            metrics.gauge("image_cache.used_bytes", cachingImageStore::getUsedBytes);
+        }
+    }
+
     public void start() throws IOException {
         server.start();
         logger.info("server started on port: " + port);
@@ -61,6 +119,9 @@ public class LaptopServer {
         if (server != null) {
             server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
         }
+        if (executor != null) {
+            executor.shutdown();
+        }
     }
 
     private void blockUnitShutdown() throws InterruptedException {
@@ -69,26 +130,71 @@ public class LaptopServer {
         }
     }
 
-    public static SslContext loadTLSCredentials() throws SSLException {
+    public static TlsCredentials loadTLSCredentials(LaptopServerProperties properties) throws IOException {
         File serverCertFile = new File("cert/server-cert.pem");
         File serverKeyFile = new File("cert/server-key.pem");
         File clientCACertFile = new File("cert/ca-cert.pem");
 
-        SslContextBuilder ctxBuilder = SslContextBuilder.forServer(serverCertFile, serverKeyFile)
-                .clientAuth(ClientAuth.REQUIRE)
-                .trustManager(clientCACertFile);
-
-        return GrpcSslContexts.configure(ctxBuilder).build();
+        return TlsCredentials.forServer(properties, serverCertFile, serverKeyFile, clientCACertFile);
     }
 
     public static void main(String[] args) throws IOException, InterruptedException {
-        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
-        DiskImageStore imageStore = new DiskImageStore("img");
-        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        LaptopServerProperties properties = LaptopServerProperties.load();
+        NettyTransport transport = new NettyTransport(properties);
+        TlsCredentials shardCredentials = null;
+        LaptopStore laptopStore;
+        String shards = properties.getString("pcbook.store.shards", "");
+        if (!shards.isEmpty()) {
+            // this node only routes: the catalog lives on the shard nodes, reached as a client
+            shardCredentials = LaptopClient.loadTLSCredentials(properties);
+            Map<String, RemoteLaptopStore> shardStores = new LinkedHashMap<>();
+            long shardDeadlineMillis = properties.getLong("pcbook.store.shards.deadline-ms", 10_000);
+            for (String shard : shards.split(",")) {
+                String target = shard.trim();
+                int colon = target.lastIndexOf(':');
+                ManagedChannel channel = transport.forAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)))
+                        .sslContext(shardCredentials.getSslContext())
+                        .build();
+                shardStores.put(target, new RemoteLaptopStore(channel, shardDeadlineMillis));
+            }
+            laptopStore = new ShardedLaptopStore(shardStores, properties.getInt("pcbook.store.shards.virtual-nodes", 128));
+        } else if (properties.getBoolean("pcbook.store.off-heap.enabled", false)) {
+            String arenaFile = properties.getString("pcbook.store.off-heap.file", "");
+            int chunkSize = properties.getInt("pcbook.store.off-heap.chunk-bytes", 64 << 20);
+            laptopStore = arenaFile.isEmpty()
+                    ? new OffHeapLaptopStore(chunkSize)
+                    : new OffHeapLaptopStore(chunkSize, Path.of(arenaFile));
+        } else {
+            laptopStore = new ColumnarLaptopStore();
+        }
+        if (shards.isEmpty() && properties.getBoolean("pcbook.store.wal.enabled", false)) {
+            laptopStore = new DurableLaptopStore(Path.of(properties.getString("pcbook.store.wal.dir", "data")), laptopStore,
+                    properties.getLong("pcbook.store.wal.segment-bytes", 64 << 20),
+                    properties.getInt("pcbook.store.wal.snapshot-segments", 4));
+        }
+        StripedRatingStore ratingStore = new StripedRatingStore();
 
-        SslContext sslContext = LaptopServer.loadTLSCredentials();
-        LaptopServer server = new LaptopServer(8080, laptopStore, imageStore, ratingStore, sslContext);
+        DiskImageStore diskImageStore = new DiskImageStore("img", properties.getBoolean("pcbook.image.content-addressed", false));
+        ImageStore imageStore = diskImageStore;
+        long imageCacheBytes = properties.getLong("pcbook.image.cache.max-bytes", 0);
+        if (imageCacheBytes > 0) {
+            imageStore = new CachingImageStore(imageStore, imageCacheBytes, properties.getBoolean("pcbook.image.cache.off-heap", false));
+        }
+        int port = properties.getInt("pcbook.server.port", 8080);
+        TlsCredentials tlsCredentials = LaptopServer.loadTLSCredentials(properties);
+        ServerBuilder serverBuilder = transport.forPort(port).sslContext(tlsCredentials.getSslContext());
+        LaptopServer server = new LaptopServer(serverBuilder, port, laptopStore, imageStore, ratingStore, properties);
         server.start();
         server.blockUnitShutdown();
+        if (laptopStore instanceof Closeable closeable) {
+            // syncs the log, closes the arena file or shuts down the shard channels
+            closeable.close();
+        }
+        diskImageStore.close();
+        transport.close();
+        tlsCredentials.close();
+        if (shardCredentials != null) {
+            shardCredentials.close();
+        }
     }
 }
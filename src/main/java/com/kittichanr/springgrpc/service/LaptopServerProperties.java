@@ -0,0 +1,85 @@
+package com.kittichanr.springgrpc.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Server settings read from application.properties on the classpath. Missing keys fall back to
+ * the defaults given by the caller.
+ */
+public class LaptopServerProperties {
+    private static final String RESOURCE_NAME = "application.properties";
+
+    private final Properties properties;
+
+    public LaptopServerProperties(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static LaptopServerProperties defaults() {
+        return new LaptopServerProperties(new Properties());
+    }
+
+    public static LaptopServerProperties load() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream inputStream = LaptopServerProperties.class.getClassLoader().getResourceAsStream(RESOURCE_NAME)) {
+            if (inputStream != null) {
+                properties.load(inputStream);
+            }
+        }
+        return new LaptopServerProperties(properties);
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid integer for " + key + ": " + value, e);
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid integer for " + key + ": " + value, e);
+        }
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number for " + key + ": " + value, e);
+        }
+    }
+}
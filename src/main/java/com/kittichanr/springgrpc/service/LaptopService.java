@@ -1,14 +1,26 @@
 package com.kittichanr.springgrpc.service;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import com.kittichanr.pcbook.generated.*;
 import io.grpc.Context;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 ;
@@ -20,10 +32,47 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
     private ImageStore imageStore;
     private RatingStore ratingStore;
 
+    // search pacing is off unless pcbook.search.pacing.enabled is set
+    private final boolean searchPacingEnabled;
+    private final double searchPermitsPerSecond;
+    private final int searchBurst;
+
+    // rateLaptop batching is off unless pcbook.rate.batch.enabled is set
+    private final boolean rateBatchEnabled;
+    private final int rateBatchMaxSize;
+    private final long rateBatchWindowMillis;
+
+    // only created when pacing or batching needs timers
+    private ScheduledExecutorService scheduler;
+
+    // images are streamed to the store chunk by chunk, so this only bounds disk usage
+    private final long maxImageSize;
+    private final int downloadChunkSize;
+
     public LaptopService(LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore) {
+        this(laptopStore, imageStore, ratingStore, LaptopServerProperties.defaults());
+    }
+
+    public LaptopService(LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore, LaptopServerProperties properties) {
         this.laptopStore = laptopStore;
         this.imageStore = imageStore;
         this.ratingStore = ratingStore;
+
+        this.searchPacingEnabled = properties.getBoolean("pcbook.search.pacing.enabled", false);
+        this.searchPermitsPerSecond = properties.getDouble("pcbook.search.pacing.permits-per-second", 100);
+        this.searchBurst = properties.getInt("pcbook.search.pacing.burst", 10);
+        this.maxImageSize = properties.getInt("pcbook.image.max-size", 32 << 20);
+        this.downloadChunkSize = properties.getInt("pcbook.image.download-chunk-size", 64 << 10);
+        this.rateBatchEnabled = properties.getBoolean("pcbook.rate.batch.enabled", false);
+        this.rateBatchMaxSize = properties.getInt("pcbook.rate.batch.max-size", 1000);
+        this.rateBatchWindowMillis = properties.getLong("pcbook.rate.batch.window-ms", 50);
+        if (searchPacingEnabled || rateBatchEnabled) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "laptop-service-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
     @Override
@@ -33,18 +82,14 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
         String id = laptop.getId();
         logger.info("got a create-laptop request with ID: " + id);
 
-        UUID uuid;
-        if (id.isEmpty()) {
-            uuid = UUID.randomUUID();
-        } else {
-            try {
-                uuid = UUID.fromString(id);
-            } catch (IllegalArgumentException e) {
-                responseObserver.onError(Status.INVALID_ARGUMENT
-                        .withDescription(e.getMessage())
-                        .asRuntimeException());
-                return;
-            }
+        Laptop other;
+        try {
+            other = withCanonicalID(laptop);
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription(e.getMessage())
+                    .asRuntimeException());
+            return;
         }
 
 //        try {
@@ -62,8 +107,6 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
             );
         }
 
-        Laptop other = laptop.toBuilder().setId(uuid.toString()).build();
-
         // save other laptop to store
         try {
             laptopStore.Save(other);
@@ -88,129 +131,394 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
         logger.info("saved laptop with ID: " + other.getId());
     }
 
+    @Override
+    public StreamObserver<CreateLaptopsRequest> createLaptops(StreamObserver<CreateLaptopsResponse> responseObserver) {
+        // the next batch is only requested once the client can take the results of the previous
+        // one, so a client that stops reading can't make the server queue results without bound
+        ServerCallStreamObserver<CreateLaptopsResponse> serverObserver = (ServerCallStreamObserver<CreateLaptopsResponse>) responseObserver;
+        serverObserver.disableAutoRequest();
+        AtomicBoolean waitingForReady = new AtomicBoolean();
+        serverObserver.setOnReadyHandler(() -> {
+            if (waitingForReady.compareAndSet(true, false)) {
+                serverObserver.request(1);
+            }
+        });
+        serverObserver.request(1);
+
+        return new StreamObserver<CreateLaptopsRequest>() {
+            // the batches received so far, for the log when the call fails
+            private int batches;
+            private int lastBatchSize;
+
+            @Override
+            public void onNext(CreateLaptopsRequest request) {
+                int n = request.getLaptopsCount();
+                batches++;
+                lastBatchSize = n;
+                CreateLaptopResult[] results = new CreateLaptopResult[n];
+                List<Laptop> laptops = new ArrayList<>(n);
+                int[] positions = new int[n];
+                for (int i = 0; i < n; i++) {
+                    Laptop laptop = request.getLaptops(i);
+                    try {
+                        positions[laptops.size()] = i;
+                        laptops.add(withCanonicalID(laptop));
+                    } catch (IllegalArgumentException e) {
+                        results[i] = createLaptopResult(laptop.getId(), Status.Code.INVALID_ARGUMENT, e.getMessage());
+                    }
+                }
+
+                List<Exception> errors = laptopStore.SaveAll(laptops);
+                int saved = 0;
+                for (int j = 0; j < laptops.size(); j++) {
+                    Exception error = errors.get(j);
+                    String id = laptops.get(j).getId();
+                    if (error == null) {
+                        results[positions[j]] = createLaptopResult(id, Status.Code.OK, "");
+                        saved++;
+                    } else if (error instanceof AlreadyExistsException) {
+                        results[positions[j]] = createLaptopResult(id, Status.Code.ALREADY_EXISTS, error.getMessage());
+                    } else {
+                        results[positions[j]] = createLaptopResult(id, Status.Code.INTERNAL, error.getMessage());
+                    }
+                }
+                logger.info("saved " + saved + " of " + n + " laptops of a create-laptops batch");
+
+                responseObserver.onNext(CreateLaptopsResponse.newBuilder().addAllResults(Arrays.asList(results)).build());
+                if (serverObserver.isReady()) {
+                    serverObserver.request(1);
+                } else {
+                    waitingForReady.set(true);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                // a cancelled call must not ask for more batches once the client reads again
+                waitingForReady.set(false);
+                if (batches == 0) {
+                    logger.warning("create-laptops call failed before its first batch: " + throwable.getMessage());
+                } else {
+                    // the laptops of the batch were saved even if the client never reads their results
+                    logger.warning("create-laptops call failed after batch " + batches + " of " + lastBatchSize
+                            + " laptops: " + throwable.getMessage());
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
+    @Override
+    public void getLaptop(GetLaptopRequest request, StreamObserver<GetLaptopResponse> responseObserver) {
+        Laptop laptop = laptopStore.Find(request.getId());
+        if (laptop == null) {
+            responseObserver.onError(Status.NOT_FOUND
+                    .withDescription("laptop " + request.getId() + " doesn't exist")
+                    .asRuntimeException());
+            return;
+        }
+
+        responseObserver.onNext(GetLaptopResponse.newBuilder().setLaptop(laptop).build());
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void searchLaptop(SearchLaptopRequest request, StreamObserver<SearchLaptopResponse> responseObserver) {
         Filter filter = request.getFilter();
         logger.info("get a search-laptop request with filter:\n" + filter);
 
-        laptopStore.Search(Context.current(), filter, new LaptopStream() {
-            @Override
-            public void Send(Laptop laptop) {
-                logger.info("found laptop with ID: " + laptop.getId());
-                SearchLaptopResponse response = SearchLaptopResponse.newBuilder().setLaptop(laptop).build();
-                responseObserver.onNext(response);
+        LaptopStream stream = laptopStore.Search(Context.current(), filter);
+        Supplier<SearchLaptopResponse> source = () -> {
+            Laptop laptop = stream.Next();
+            if (laptop == null) {
+                logger.info("search laptop completed");
+                return null;
             }
-        });
-        responseObserver.onCompleted();
-        logger.info("search laptop completed");
+            logger.info("found laptop with ID: " + laptop.getId());
+            return SearchLaptopResponse.newBuilder().setLaptop(laptop).build();
+        };
+
+        TokenBucket bucket = null;
+        if (searchPacingEnabled) {
+            bucket = new TokenBucket(searchPermitsPerSecond, searchBurst);
+        }
+
+        // matches are pulled from the store only as fast as the client's flow-control window allows
+        ServerCallStreamObserver<SearchLaptopResponse> serverObserver = (ServerCallStreamObserver<SearchLaptopResponse>) responseObserver;
+        // a stream waiting on other nodes is only pulled once it has a result, so no callback thread waits for them
+        PacedStreamEmitter<SearchLaptopResponse> emitter = new PacedStreamEmitter<>(serverObserver, source, stream::isReady, bucket, scheduler);
+        stream.setOnReadyHandler(emitter::onSourceReady);
+        emitter.start();
     }
 
     @Override
     public StreamObserver<UploadImageRequest> uploadImage(StreamObserver<UploadImageResponse> responseObserver) {
+        // the next chunk is only requested once the previous one is on disk, which bounds the
+        // memory of an upload to a single chunk no matter how slow the disk is
+        ServerCallStreamObserver<UploadImageResponse> serverObserver = (ServerCallStreamObserver<UploadImageResponse>) responseObserver;
+        serverObserver.disableAutoRequest();
+        serverObserver.request(1);
+
         return new StreamObserver<UploadImageRequest>() {
-            private String laptopID;
-            private String imageType;
-            private ByteArrayOutputStream imageData;
-            private static final int maxImageSize = 1 << 20; // 1 megabytes
+            // not synchronized, which would pin a virtual thread to its carrier while the store blocks
+            private final ReentrantLock lock = new ReentrantLock();
+            private ImageWriter imageWriter;
+            // set once the call is closed, after which the client's messages are ignored
+            private boolean closed;
 
             @Override
             public void onNext(UploadImageRequest request) {
+                lock.lock();
+                try {
+                    if (closed) {
+                        return;
+                    }
+                    receive(request);
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                lock.lock();
+                try {
+                    logger.warning(throwable.getMessage());
+                    closed = true;
+                    abort();
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                lock.lock();
+                try {
+                    if (closed) {
+                        return;
+                    }
+                    complete();
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            private void receive(UploadImageRequest request) {
                 if (request.getDataCase() == UploadImageRequest.DataCase.INFO) {
                     ImageInfo info = request.getInfo();
                     logger.info("receive image info:\n" + info);
 
-                    laptopID = info.getLaptopId();
-                    imageType = info.getImageType();
-                    imageData = new ByteArrayOutputStream();
+                    if (imageWriter != null) {
+                        logger.info("image info was already sent");
+                        fail(Status.INVALID_ARGUMENT.withDescription("image info was already sent"));
+                        return;
+                    }
 
                     // chunk laptop exists
-                    Laptop found = laptopStore.Find(laptopID);
+                    Laptop found = laptopStore.Find(info.getLaptopId());
                     if (found == null) {
-                        responseObserver.onError(
-                                Status.NOT_FOUND
-                                        .withDescription("laptop ID doesn't exist")
-                                        .asRuntimeException()
-                        );
+                        fail(Status.NOT_FOUND.withDescription("laptop ID doesn't exist"));
+                        return;
                     }
+
+                    imageWriter = imageStore.Open(info.getLaptopId(), info.getImageType());
+                    serverObserver.request(1);
                     return;
                 }
                 ByteString chunkData = request.getChunkData();
                 logger.info("receive image chunk with size: " + chunkData.size());
 
-                if (imageData == null) {
+                if (imageWriter == null) {
                     logger.info("image info wasn't sent before");
-                    responseObserver.onError(
-                            Status.INVALID_ARGUMENT
-                                    .withDescription("image info wasn't sent before")
-                                    .asRuntimeException()
-                    );
+                    fail(Status.INVALID_ARGUMENT.withDescription("image info wasn't sent before"));
                     return;
                 }
 
-                int size = imageData.size() + chunkData.size();
+                long size = imageWriter.Size() + chunkData.size();
                 if (size > maxImageSize) {
                     logger.info("image is too large: " + size);
-                    responseObserver.onError(
-                            Status.INVALID_ARGUMENT
-                                    .withDescription("image is too large: " + size)
-                                    .asRuntimeException()
-                    );
+                    fail(Status.INVALID_ARGUMENT.withDescription("image is too large: " + size));
+                    return;
                 }
 
-                try {
-                    chunkData.writeTo(imageData);
-                } catch (IOException e) {
-                    responseObserver.onError(
-                            Status.INTERNAL
-                                    .withDescription("cannot write chunk data: " + e.getMessage())
-                                    .asRuntimeException()
-                    );
+                ImageWriter writer = imageWriter;
+                writer.Write(chunkData).whenComplete((ignored, throwable) -> {
+                    if (throwable == null) {
+                        serverObserver.request(1);
+                        return;
+                    }
+                    lock.lock();
+                    try {
+                        if (closed || imageWriter != writer) {
+                            return;
+                        }
+                        fail(Status.INTERNAL.withDescription("cannot write chunk data: " + causeMessage(throwable)));
+                    } finally {
+                        lock.unlock();
+                    }
+                });
+            }
+
+            private void complete() {
+                if (imageWriter == null) {
+                    fail(Status.INVALID_ARGUMENT.withDescription("image info wasn't sent before"));
                     return;
                 }
+
+                ImageWriter writer = imageWriter;
+                long imageSize = writer.Size();
+                writer.Commit().whenComplete((imageID, throwable) -> {
+                    lock.lock();
+                    try {
+                        if (closed || imageWriter != writer) {
+                            return;
+                        }
+                        if (throwable != null) {
+                            fail(Status.INTERNAL.withDescription("cannot save image to the store " + causeMessage(throwable)));
+                            return;
+                        }
+
+                        imageWriter = null;
+                        closed = true;
+                        UploadImageResponse response = UploadImageResponse.newBuilder()
+                                .setId(imageID)
+                                .setSize((int) imageSize)
+                                .build();
+                        responseObserver.onNext(response);
+                        responseObserver.onCompleted();
+                    } finally {
+                        lock.unlock();
+                    }
+                });
             }
 
-            @Override
-            public void onError(Throwable throwable) {
-                logger.warning(throwable.getMessage());
+            /**
+             * Closes the call with the status, dropping the image written so far.
+             */
+            private void fail(Status status) {
+                closed = true;
+                abort();
+                responseObserver.onError(status.asRuntimeException());
             }
 
-            @Override
-            public void onCompleted() {
-                String imageID = "";
-                int imageSize = imageData.size();
+            private void abort() {
+                if (imageWriter != null) {
+                    imageWriter.Abort();
+                    imageWriter = null;
+                }
+            }
+        };
+    }
 
-                try {
-                    imageID = imageStore.Save(laptopID, imageType, imageData);
-                } catch (IOException e) {
-                    responseObserver.onError(
-                            Status.INTERNAL
-                                    .withDescription("cannot save image to the store " + e.getMessage())
-                                    .asRuntimeException()
-                    );
+    @Override
+    public void downloadImage(DownloadImageRequest request, StreamObserver<DownloadImageResponse> responseObserver) {
+        String imageID = request.getImageId();
+        logger.info("got a download-image request with ID: " + imageID);
+
+        ImageMetaData metaData = imageStore.Find(imageID);
+        if (metaData == null) {
+            responseObserver.onError(
+                    Status.NOT_FOUND
+                            .withDescription("image ID doesn't exist")
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        ImageInfo info = ImageInfo.newBuilder()
+                .setLaptopId(metaData.getLaptopID())
+                .setImageType(metaData.getType())
+                .build();
+
+        // the store reads the image on its own I/O threads; streaming starts once it is there
+        CompletableFuture<ByteBuffer> read = imageStore.Read(imageID);
+        Supplier<DownloadImageResponse> source = new Supplier<>() {
+            private ByteBuffer imageData;
+            private int offset;
+
+            @Override
+            public DownloadImageResponse get() {
+                if (imageData == null) {
+                    // the emitter is only started once the read has completed with the image
+                    imageData = read.join();
+                    return DownloadImageResponse.newBuilder().setInfo(info).build();
+                }
+                if (offset == imageData.limit()) {
+                    logger.info("download image completed: " + imageID);
+                    return null;
                 }
 
-                UploadImageResponse response = UploadImageResponse.newBuilder()
-                        .setId(imageID)
-                        .setSize(imageSize)
-                        .build();
-                responseObserver.onNext(response);
-                responseObserver.onCompleted();
+                // chunks wrap slices of the store's buffer instead of copying them onto the heap
+                int size = Math.min(downloadChunkSize, imageData.limit() - offset);
+                ByteString chunkData = UnsafeByteOperations.unsafeWrap(imageData.slice(offset, size));
+                offset += size;
+                return DownloadImageResponse.newBuilder().setChunkData(chunkData).build();
             }
         };
+
+        // chunks are produced only as fast as the client's flow-control window allows; the emitter
+        // registers its handler now, as it must before this method returns, and starts later
+        ServerCallStreamObserver<DownloadImageResponse> serverObserver = (ServerCallStreamObserver<DownloadImageResponse>) responseObserver;
+        PacedStreamEmitter<DownloadImageResponse> emitter = new PacedStreamEmitter<>(serverObserver, source, null, null);
+        read.whenComplete((imageData, throwable) -> {
+            if (throwable != null) {
+                responseObserver.onError(
+                        Status.INTERNAL
+                                .withDescription("cannot read image from the store: " + causeMessage(throwable))
+                                .asRuntimeException()
+                );
+            } else if (imageData == null) {
+                // deleted since it was found
+                responseObserver.onError(
+                        Status.NOT_FOUND
+                                .withDescription("image ID doesn't exist")
+                                .asRuntimeException()
+                );
+            } else {
+                emitter.start();
+            }
+        });
     }
 
     @Override
     public StreamObserver<RateLaptopRequest> rateLaptop(StreamObserver<RateLaptopResponse> responseObserver) {
+        if (rateBatchEnabled) {
+            return new BatchedRateLaptopObserver(laptopStore, ratingStore, responseObserver,
+                    scheduler, rateBatchMaxSize, rateBatchWindowMillis);
+        }
+
         return new StreamObserver<RateLaptopRequest>() {
+            // set once the call is closed with an error, after which the client's messages are ignored
+            private boolean closed;
+
             @Override
             public void onNext(RateLaptopRequest request) {
+                if (closed) {
+                    return;
+                }
                 String laptopId = request.getLaptopId();
                 double score = request.getScore();
 
                 logger.info("received rate-laptop request: id = " + laptopId + ", score = " + score);
 
+                if (!RatingStore.isValidScore(score)) {
+                    closed = true;
+                    responseObserver.onError(
+                            Status.INVALID_ARGUMENT
+                                    .withDescription("score must be within " + RatingStore.MAX_SCORE + ": " + score)
+                                    .asRuntimeException()
+                    );
+                    return;
+                }
+
                 Laptop found = laptopStore.Find(laptopId);
                 if (found == null) {
+                    closed = true;
                     responseObserver.onError(
                             Status.NOT_FOUND.
                                     withDescription("laptop ID doesn't exist")
@@ -236,8 +544,40 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
 
             @Override
             public void onCompleted() {
-                responseObserver.onCompleted();
+                if (!closed) {
+                    responseObserver.onCompleted();
+                }
             }
         };
     }
+
+    /**
+     * Returns the laptop with a newly generated ID if it has none, or with its ID in canonical
+     * UUID form; throws IllegalArgumentException if the ID isn't a UUID.
+     */
+    private static Laptop withCanonicalID(Laptop laptop) {
+        String id = laptop.getId();
+        UUID uuid = id.isEmpty() ? UUID.randomUUID() : UUID.fromString(id);
+        if (id.equals(uuid.toString())) {
+            return laptop;
+        }
+        return laptop.toBuilder().setId(uuid.toString()).build();
+    }
+
+    private static CreateLaptopResult createLaptopResult(String id, Status.Code code, String message) {
+        return CreateLaptopResult.newBuilder()
+                .setId(id)
+                .setCode(code.value())
+                .setMessage(message == null ? "" : message)
+                .build();
+    }
+
+    private static String causeMessage(Throwable throwable) {
+        // unwrap what CompletableFuture and the store wrap around the actual I/O error
+        while ((throwable instanceof CompletionException || throwable instanceof UncheckedIOException)
+                && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable.getMessage();
+    }
 }
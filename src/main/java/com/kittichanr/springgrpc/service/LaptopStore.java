@@ -4,11 +4,18 @@ import com.kittichanr.pcbook.generated.Filter;
 import com.kittichanr.pcbook.generated.Laptop;
 import io.grpc.Context;
 
+import java.util.List;
+
 public interface LaptopStore {
     void Save(Laptop laptop) throws Exception;
 
+    /**
+     * Saves the laptops in order and returns, for each of them, the exception Save would have
+     * thrown, or null if it was saved.
+     */
+    List<Exception> SaveAll(List<Laptop> laptops);
+
     Laptop Find(String id);
 
-    void Search(Context context, Filter filter, LaptopStream stream);
+    LaptopStream Search(Context context, Filter filter);
 }
-
@@ -2,6 +2,27 @@ package com.kittichanr.springgrpc.service;
 
 import com.kittichanr.pcbook.generated.Laptop;
 
+/**
+ * Pull-based cursor over the results of a search.
+ */
 public interface LaptopStream {
-    void Send(Laptop laptop);
+    /**
+     * Returns the next matching laptop, or null once the search is exhausted or its context is cancelled.
+     */
+    Laptop Next();
+
+    /**
+     * Returns whether Next can return without waiting for results that are still on their way.
+     * Streams over local data always can.
+     */
+    default boolean isReady() {
+        return true;
+    }
+
+    /**
+     * Sets a handler run, from whichever thread receives it, each time a result arrives that the
+     * stream may have been waiting for. Streams that are always ready never run it.
+     */
+    default void setOnReadyHandler(Runnable handler) {
+    }
 }
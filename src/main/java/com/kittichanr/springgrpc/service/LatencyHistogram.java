@@ -0,0 +1,44 @@
+package com.kittichanr.springgrpc.service;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution in microseconds. Recording is wait-free, so it can sit on the request path;
+ * readers swap out what was recorded since the last read and fold it into a running total.
+ */
+public class LatencyHistogram {
+    private final Recorder recorder = new Recorder(3);
+    private Histogram total = new Histogram(3);
+    private Histogram recycled;
+
+    public void record(long nanos) {
+        recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    /**
+     * Returns a copy of everything recorded since the histogram was created or last reset.
+     */
+    public synchronized Histogram snapshot() {
+        drain();
+        return total.copy();
+    }
+
+    /**
+     * Returns a copy like {@link #snapshot()} and clears the histogram, as one step so no value
+     * recorded in between is lost.
+     */
+    public synchronized Histogram snapshotAndReset() {
+        Histogram snapshot = snapshot();
+        total.reset();
+        return snapshot;
+    }
+
+    private void drain() {
+        Histogram interval = recorder.getIntervalHistogram(recycled);
+        total.add(interval);
+        recycled = interval;
+    }
+}
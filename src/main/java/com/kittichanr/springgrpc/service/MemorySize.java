@@ -0,0 +1,21 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Memory;
+
+public class MemorySize {
+    private MemorySize() {
+    }
+
+    public static long toBit(Memory memory) {
+        long value = memory.getValue();
+        return switch (memory.getUnit()) {
+            case BIT -> value;
+            case BYTE -> value << 3;
+            case KILOBYTE -> value << 13;
+            case MEGABYTE -> value << 23;
+            case GIGABYTE -> value << 33;
+            case TERABYTE -> value << 43;
+            default -> 0;
+        };
+    }
+}
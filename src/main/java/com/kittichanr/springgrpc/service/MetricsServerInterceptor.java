@@ -0,0 +1,101 @@
+package com.kittichanr.springgrpc.service;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records, per gRPC method, the calls started and finished by status code, the messages received
+ * and sent, the calls in flight and the latency from the call starting to its status being sent.
+ * A call the client cancels is counted as CANCELLED when the server learns of it.
+ */
+public class MetricsServerInterceptor implements ServerInterceptor {
+    private final MetricsRegistry registry;
+    private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+    public MetricsServerInterceptor(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        MethodMetrics metrics = methods.computeIfAbsent(call.getMethodDescriptor().getFullMethodName(), MethodMetrics::new);
+        long startNanos = System.nanoTime();
+        AtomicBoolean finished = new AtomicBoolean();
+        metrics.started.increment();
+        metrics.inFlight.increment();
+
+        ServerCall<ReqT, RespT> monitoredCall = new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                metrics.messagesSent.increment();
+                super.sendMessage(message);
+            }
+
+            @Override
+            public void close(Status status, Metadata trailers) {
+                if (finished.compareAndSet(false, true)) {
+                    metrics.finish(status.getCode(), startNanos);
+                }
+                super.close(status, trailers);
+            }
+        };
+
+        ServerCall.Listener<ReqT> listener = next.startCall(monitoredCall, headers);
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(listener) {
+            @Override
+            public void onMessage(ReqT message) {
+                metrics.messagesReceived.increment();
+                super.onMessage(message);
+            }
+
+            @Override
+            public void onCancel() {
+                if (finished.compareAndSet(false, true)) {
+                    metrics.finish(Status.Code.CANCELLED, startNanos);
+                }
+                super.onCancel();
+            }
+        };
+    }
+
+    private class MethodMetrics {
+        private final String prefix;
+        private final LongAdder started;
+        private final LongAdder inFlight;
+        private final LongAdder messagesReceived;
+        private final LongAdder messagesSent;
+        private final LatencyHistogram latency;
+        private final LongAdder[] finished = new LongAdder[Status.Code.values().length];
+
+        private MethodMetrics(String fullMethodName) {
+            prefix = "grpc.server." + fullMethodName;
+            started = registry.counter(prefix + ".started");
+            inFlight = registry.counter(prefix + ".in_flight");
+            messagesReceived = registry.counter(prefix + ".messages_received");
+            messagesSent = registry.counter(prefix + ".messages_sent");
+            latency = registry.histogram(prefix + ".latency_us");
+        }
+
+        private void finish(Status.Code code, long startNanos) {
+            latency.record(System.nanoTime() - startNanos);
+            inFlight.decrement();
+            LongAdder counter = finished[code.ordinal()];
+            if (counter == null) {
+                // racing threads get the same adder back from the registry
+                counter = registry.counter(prefix + ".finished." + code);
+                finished[code.ordinal()] = counter;
+            }
+            counter.increment();
+        }
+    }
+}
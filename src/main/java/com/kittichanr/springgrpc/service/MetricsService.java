@@ -0,0 +1,43 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.GetMetricsRequest;
+import com.kittichanr.pcbook.generated.GetMetricsResponse;
+import com.kittichanr.pcbook.generated.HistogramSnapshot;
+import com.kittichanr.pcbook.generated.MetricsServiceGrpc;
+import io.grpc.stub.StreamObserver;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+
+/**
+ * Admin service that returns the current values of a {@link MetricsRegistry}.
+ */
+public class MetricsService extends MetricsServiceGrpc.MetricsServiceImplBase {
+    private final MetricsRegistry registry;
+
+    public MetricsService(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void getMetrics(GetMetricsRequest request, StreamObserver<GetMetricsResponse> responseObserver) {
+        GetMetricsResponse.Builder response = GetMetricsResponse.newBuilder().putAllValues(registry.values());
+        for (Map.Entry<String, LatencyHistogram> entry : registry.histograms().entrySet()) {
+            Histogram histogram = request.getResetHistograms()
+                    ? entry.getValue().snapshotAndReset()
+                    : entry.getValue().snapshot();
+            response.addHistograms(HistogramSnapshot.newBuilder()
+                    .setName(entry.getKey())
+                    .setCount(histogram.getTotalCount())
+                    .setMean(histogram.getMean())
+                    .setP50(histogram.getValueAtPercentile(50))
+                    .setP90(histogram.getValueAtPercentile(90))
+                    .setP99(histogram.getValueAtPercentile(99))
+                    .setP999(histogram.getValueAtPercentile(99.9))
+                    .setMax(histogram.getMaxValue())
+                    .build());
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+}
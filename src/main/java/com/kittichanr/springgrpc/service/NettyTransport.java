@@ -0,0 +1,176 @@
+package com.kittichanr.springgrpc.service;
+
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Netty transport settings read from the pcbook.transport.* properties and applied to server and
+ * channel builders: native epoll or NIO, event loop sizes, the ByteBuf allocator, HTTP/2
+ * flow-control windows, the largest inbound message and keepalive. Anything left unset keeps
+ * the gRPC default.
+ * <p>
+ * The event loop groups, when configured, are shared by every builder made here and are only
+ * released by {@link #close()}, after the servers and channels using them have shut down.
+ */
+public class NettyTransport implements Closeable {
+    private static final Logger logger = Logger.getLogger(NettyTransport.class.getName());
+
+    private final boolean epoll;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final ByteBufAllocator allocator;
+    private final int flowControlWindow;
+    private final boolean flowControlAutoTune;
+    private final int maxInboundMessageSize;
+    private final long keepAliveTimeMillis;
+    private final long keepAliveTimeoutMillis;
+    private final boolean keepAliveWithoutCalls;
+    private final long permitKeepAliveTimeMillis;
+    private final long maxConnectionIdleMillis;
+
+    public NettyTransport(LaptopServerProperties properties) {
+        boolean nativeTransport = properties.getBoolean("pcbook.transport.native", false);
+        if (nativeTransport && !Epoll.isAvailable()) {
+            logger.warning("native epoll transport is unavailable, using NIO: " + Epoll.unavailabilityCause());
+        }
+        epoll = nativeTransport && Epoll.isAvailable();
+
+        int bossThreads = properties.getInt("pcbook.transport.boss-threads", 1);
+        int workerThreads = properties.getInt("pcbook.transport.worker-threads", 0);
+        // gRPC's own shared NIO groups are fine unless epoll or explicit sizes were asked for
+        if (epoll || workerThreads > 0) {
+            bossGroup = newEventLoopGroup(bossThreads, "pcbook-boss");
+            workerGroup = newEventLoopGroup(workerThreads, "pcbook-worker");
+        } else {
+            bossGroup = null;
+            workerGroup = null;
+        }
+
+        String allocatorName = properties.getString("pcbook.transport.allocator", "default");
+        allocator = switch (allocatorName) {
+            case "default" -> null;
+            case "pooled" -> PooledByteBufAllocator.DEFAULT;
+            case "unpooled" -> UnpooledByteBufAllocator.DEFAULT;
+            default -> throw new IllegalArgumentException("unknown pcbook.transport.allocator: " + allocatorName);
+        };
+
+        flowControlWindow = properties.getInt("pcbook.transport.flow-control-window", 0);
+        flowControlAutoTune = properties.getBoolean("pcbook.transport.flow-control-auto-tune", true);
+        maxInboundMessageSize = properties.getInt("pcbook.transport.max-inbound-message-size", 0);
+        keepAliveTimeMillis = properties.getLong("pcbook.transport.keepalive-time-ms", 0);
+        keepAliveTimeoutMillis = properties.getLong("pcbook.transport.keepalive-timeout-ms", 0);
+        keepAliveWithoutCalls = properties.getBoolean("pcbook.transport.keepalive-without-calls", false);
+        permitKeepAliveTimeMillis = properties.getLong("pcbook.transport.permit-keepalive-time-ms", 0);
+        maxConnectionIdleMillis = properties.getLong("pcbook.transport.max-connection-idle-ms", 0);
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    public NettyServerBuilder forPort(int port) {
+        NettyServerBuilder builder = NettyServerBuilder.forPort(port);
+        if (workerGroup != null) {
+            builder.bossEventLoopGroup(bossGroup)
+                    .workerEventLoopGroup(workerGroup)
+                    .channelType(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class);
+        }
+        if (allocator != null) {
+            builder.withOption(ChannelOption.ALLOCATOR, allocator)
+                    .withChildOption(ChannelOption.ALLOCATOR, allocator);
+        }
+        if (flowControlWindow > 0) {
+            // initialFlowControlWindow leaves BDP auto-tuning on, flowControlWindow turns it off
+            if (flowControlAutoTune) {
+                builder.initialFlowControlWindow(flowControlWindow);
+            } else {
+                builder.flowControlWindow(flowControlWindow);
+            }
+        }
+        if (maxInboundMessageSize > 0) {
+            builder.maxInboundMessageSize(maxInboundMessageSize);
+        }
+        if (keepAliveTimeMillis > 0) {
+            builder.keepAliveTime(keepAliveTimeMillis, TimeUnit.MILLISECONDS);
+        }
+        if (keepAliveTimeoutMillis > 0) {
+            builder.keepAliveTimeout(keepAliveTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        if (permitKeepAliveTimeMillis > 0) {
+            // clients pinging more often than this are disconnected with ENHANCE_YOUR_CALM
+            builder.permitKeepAliveTime(permitKeepAliveTimeMillis, TimeUnit.MILLISECONDS);
+        }
+        if (keepAliveWithoutCalls) {
+            // otherwise a client pinging an idle connection is disconnected, which keeps idle clients from holding it open
+            builder.permitKeepAliveWithoutCalls(true);
+        }
+        if (maxConnectionIdleMillis > 0) {
+            builder.maxConnectionIdle(maxConnectionIdleMillis, TimeUnit.MILLISECONDS);
+        }
+        return builder;
+    }
+
+    public NettyChannelBuilder forAddress(String host, int port) {
+        NettyChannelBuilder builder = NettyChannelBuilder.forAddress(host, port);
+        if (workerGroup != null) {
+            builder.eventLoopGroup(workerGroup)
+                    .channelType(epoll ? EpollSocketChannel.class : NioSocketChannel.class);
+        }
+        if (allocator != null) {
+            builder.withOption(ChannelOption.ALLOCATOR, allocator);
+        }
+        if (flowControlWindow > 0) {
+            // initialFlowControlWindow leaves BDP auto-tuning on, flowControlWindow turns it off
+            if (flowControlAutoTune) {
+                builder.initialFlowControlWindow(flowControlWindow);
+            } else {
+                builder.flowControlWindow(flowControlWindow);
+            }
+        }
+        if (maxInboundMessageSize > 0) {
+            builder.maxInboundMessageSize(maxInboundMessageSize);
+        }
+        if (keepAliveTimeMillis > 0) {
+            builder.keepAliveTime(keepAliveTimeMillis, TimeUnit.MILLISECONDS)
+                    .keepAliveWithoutCalls(keepAliveWithoutCalls);
+        }
+        if (keepAliveTimeoutMillis > 0) {
+            builder.keepAliveTimeout(keepAliveTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        if (maxConnectionIdleMillis > 0) {
+            builder.idleTimeout(maxConnectionIdleMillis, TimeUnit.MILLISECONDS);
+        }
+        return builder;
+    }
+
+    @Override
+    public void close() {
+        if (workerGroup != null) {
+            bossGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+            workerGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    private EventLoopGroup newEventLoopGroup(int threads, String name) {
+        // 0 threads lets Netty pick twice the number of cores
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name, true);
+        return epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+}
@@ -0,0 +1,252 @@
+package com.kittichanr.springgrpc.service;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.Laptop;
+import io.grpc.Context;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Laptop store that keeps serialized laptops outside the Java heap. Records are appended to an
+ * arena of direct buffers, or of regions mapped from a scratch file so the OS can page them out,
+ * and located through a primitive UUID to offset map. Filters are evaluated against the same
+ * primitive columns as {@link ColumnarLaptopStore}, so a laptop is only parsed when Find or
+ * Search actually returns it.
+ * <p>
+ * The heap holds about 130 bytes per laptop rather than the full message graph: 48 or more in
+ * the UUID map, which stays at most half full, 28 in the columns, 48 in the four sorted indexes
+ * and 8 in rowOffsets, before the slack of arrays that grow by doubling. The price is parsing
+ * on every read.
+ */
+public class OffHeapLaptopStore implements LaptopStore, Closeable {
+    private static final Logger logger = Logger.getLogger(OffHeapLaptopStore.class.getName());
+    private static final int DEFAULT_CHUNK_SIZE = 64 << 20;
+    private static final int LENGTH_PREFIX = Integer.BYTES;
+
+    private final ReadWriteLock lock;
+    private final UuidOffsetMap offsets;
+    private final LaptopColumns columns;
+    private final int chunkSize;
+    private final FileChannel file;
+    private long[] rowOffsets;
+    private ByteBuffer[] chunks;
+    private int chunkCount;
+    private int chunkPosition;
+    private long mappedBytes;
+
+    public OffHeapLaptopStore() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public OffHeapLaptopStore(int chunkSize) {
+        this(chunkSize, (FileChannel) null);
+    }
+
+    /**
+     * Keeps the records in regions mapped from the given file, which is truncated first; it
+     * is scratch space only, the catalog isn't reloaded from it.
+     */
+    public OffHeapLaptopStore(int chunkSize, Path arenaFile) throws IOException {
+        this(chunkSize, FileChannel.open(arenaFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+
+    private OffHeapLaptopStore(int chunkSize, FileChannel file) {
+        this.lock = new ReentrantReadWriteLock();
+        this.offsets = new UuidOffsetMap();
+        this.columns = new LaptopColumns();
+        this.chunkSize = chunkSize;
+        this.file = file;
+        this.rowOffsets = new long[16];
+        this.chunks = new ByteBuffer[4];
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        UUID id = ConcurrentUuidMap.parseKey(laptop.getId());
+        if (id == null) {
+            throw new IllegalArgumentException("laptop ID is not a valid UUID: " + laptop.getId());
+        }
+
+        lock.writeLock().lock();
+        try {
+            insert(id, laptop);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Exception> SaveAll(List<Laptop> batch) {
+        List<Exception> errors = new ArrayList<>(Collections.nCopies(batch.size(), null));
+        // IDs are parsed before taking the lock, which is then held once for the whole batch
+        UUID[] ids = new UUID[batch.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ConcurrentUuidMap.parseKey(batch.get(i).getId());
+            if (ids[i] == null) {
+                errors.set(i, new IllegalArgumentException("laptop ID is not a valid UUID: " + batch.get(i).getId()));
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == null) {
+                    continue;
+                }
+                try {
+                    insert(ids[i], batch.get(i));
+                } catch (AlreadyExistsException | IOException e) {
+                    errors.set(i, e);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return errors;
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        UUID uuid = ConcurrentUuidMap.parseKey(id);
+        if (uuid == null) {
+            return null;
+        }
+
+        long offset;
+        ByteBuffer[] snapshot;
+        lock.readLock().lock();
+        try {
+            offset = offsets.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            snapshot = chunks;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (offset == UuidOffsetMap.ABSENT) {
+            return null;
+        }
+
+        return read(snapshot, offset);
+    }
+
+    /**
+     * Returns the number of rows searches have checked against their filter, a measure of how
+     * much of the catalog the indexes let them skip.
+     */
+    public long getScannedRows() {
+        return columns.scannedRows();
+    }
+
+    @Override
+    public LaptopStream Search(Context ctx, Filter filter) {
+        int[] matched;
+        long[] matchedOffsets;
+        ByteBuffer[] snapshot;
+
+        lock.readLock().lock();
+        try {
+            matched = columns.match(filter);
+            matchedOffsets = rowOffsets;
+            // records and chunks are append-only, so they stay valid once seen here
+            snapshot = chunks;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return new LaptopStream() {
+            private int next;
+
+            @Override
+            public Laptop Next() {
+                if (next == matched.length) {
+                    return null;
+                }
+                if (ctx.isCancelled()) {
+                    logger.info("context is canceled");
+                    return null;
+                }
+                return read(snapshot, matchedOffsets[matched[next++]]);
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    private void insert(UUID id, Laptop laptop) throws IOException {
+        if (offsets.get(id.getMostSignificantBits(), id.getLeastSignificantBits()) != UuidOffsetMap.ABSENT) {
+            throw new AlreadyExistsException("laptop ID already exists");
+        }
+
+        long offset = append(laptop, laptop.getSerializedSize());
+        int row = columns.add(laptop);
+        if (row == rowOffsets.length) {
+            rowOffsets = Arrays.copyOf(rowOffsets, row << 1);
+        }
+        rowOffsets[row] = offset;
+        offsets.putIfAbsent(id.getMostSignificantBits(), id.getLeastSignificantBits(), offset);
+    }
+
+    private long append(Laptop laptop, int size) throws IOException {
+        int recordSize = LENGTH_PREFIX + size;
+        if (chunkCount == 0 || chunkPosition + recordSize > chunks[chunkCount - 1].capacity()) {
+            addChunk(Math.max(chunkSize, recordSize));
+        }
+
+        ByteBuffer chunk = chunks[chunkCount - 1];
+        int position = chunkPosition;
+        chunk.putInt(position, size);
+        CodedOutputStream output = CodedOutputStream.newInstance(chunk.duplicate().position(position + LENGTH_PREFIX));
+        laptop.writeTo(output);
+        output.flush();
+        chunkPosition += recordSize;
+        return ((long) (chunkCount - 1) << 32) | position;
+    }
+
+    private void addChunk(int capacity) throws IOException {
+        ByteBuffer chunk;
+        if (file == null) {
+            chunk = ByteBuffer.allocateDirect(capacity);
+        } else {
+            chunk = file.map(FileChannel.MapMode.READ_WRITE, mappedBytes, capacity);
+            mappedBytes += capacity;
+        }
+
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount << 1);
+        }
+        chunks[chunkCount] = chunk;
+        chunkCount++;
+        chunkPosition = 0;
+    }
+
+    private static Laptop read(ByteBuffer[] chunks, long offset) {
+        ByteBuffer chunk = chunks[(int) (offset >>> 32)];
+        int position = (int) offset;
+        int size = chunk.getInt(position);
+        try {
+            return Laptop.parseFrom(chunk.slice(position + LENGTH_PREFIX, size));
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("corrupt laptop record at offset " + offset, e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.kittichanr.springgrpc.service;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Pulls responses from a source only while the transport is ready and, when a token bucket is
+ * given, while the bucket has tokens. Emission suspends instead of buffering and resumes from the
+ * onReadyHandler or from the scheduler once tokens refill, so no thread waits for the client and
+ * at most one response per call is in flight on the server side. A source whose responses arrive
+ * from elsewhere can say it has none ready yet; emission then resumes from {@link #onSourceReady}.
+ */
+public class PacedStreamEmitter<T> {
+    private final ServerCallStreamObserver<T> observer;
+    private final Supplier<T> source;
+    private final BooleanSupplier sourceReady;
+    private final TokenBucket bucket;
+    private final ScheduledExecutorService scheduler;
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean started;
+    private boolean completed;
+    private boolean scheduled;
+
+    /**
+     * Creates an emitter for the given source, which returns null once it is exhausted. The
+     * bucket and scheduler may be null to follow flow control only.
+     */
+    public PacedStreamEmitter(ServerCallStreamObserver<T> observer, Supplier<T> source, TokenBucket bucket, ScheduledExecutorService scheduler) {
+        this(observer, source, () -> true, bucket, scheduler);
+    }
+
+    /**
+     * Creates an emitter that only pulls from the source while sourceReady holds, so the source
+     * never waits inside the emitter; whoever makes it ready again calls {@link #onSourceReady}.
+     */
+    public PacedStreamEmitter(ServerCallStreamObserver<T> observer, Supplier<T> source, BooleanSupplier sourceReady,
+                              TokenBucket bucket, ScheduledExecutorService scheduler) {
+        this.observer = observer;
+        this.source = source;
+        this.sourceReady = sourceReady;
+        this.bucket = bucket;
+        this.scheduler = scheduler;
+
+        // must be registered before the service method returns
+        observer.setOnReadyHandler(this::drain);
+    }
+
+    /**
+     * Starts pulling from the source. Until then, the onReadyHandler does nothing, so the source
+     * can be prepared after the service method has returned.
+     */
+    public void start() {
+        lock.lock();
+        try {
+            started = true;
+            drainLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resumes emission after the source has become ready.
+     */
+    public void onSourceReady() {
+        drain();
+    }
+
+    private void drain() {
+        // a lock rather than synchronized: the source may block on the store, and a virtual thread
+        // blocking inside synchronized pins its carrier thread
+        lock.lock();
+        try {
+            drainLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainLocked() {
+        while (started && !completed) {
+            if (observer.isCancelled()) {
+                completed = true;
+                return;
+            }
+
+            if (!observer.isReady()) {
+                // the onReadyHandler resumes once the client's flow-control window opens again
+                return;
+            }
+
+            if (bucket != null) {
+                long waitNanos = bucket.nanosUntilAvailable();
+                if (waitNanos > 0) {
+                    if (!scheduled) {
+                        scheduled = true;
+                        scheduler.schedule(this::resume, waitNanos, TimeUnit.NANOSECONDS);
+                    }
+                    return;
+                }
+            }
+
+            T response;
+            try {
+                if (!sourceReady.getAsBoolean()) {
+                    // onSourceReady resumes once the source has something
+                    return;
+                }
+                response = source.get();
+            } catch (RuntimeException e) {
+                // drain may run on the scheduler, where nothing else would see the failure
+                completed = true;
+                observer.onError(Status.fromThrowable(e).asRuntimeException());
+                return;
+            }
+            if (response == null) {
+                completed = true;
+                observer.onCompleted();
+                return;
+            }
+
+            if (bucket != null) {
+                bucket.tryAcquire();
+            }
+            observer.onNext(response);
+        }
+    }
+
+    private void resume() {
+        lock.lock();
+        try {
+            scheduled = false;
+            drainLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
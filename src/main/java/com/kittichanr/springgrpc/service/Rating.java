@@ -1,8 +1,8 @@
 package com.kittichanr.springgrpc.service;
 
 public class Rating {
-    private int count;
-    private double sum;
+    private final int count;
+    private final double sum;
 
     public Rating(int count, double sum) {
         this.count = count;
@@ -1,5 +1,19 @@
 package com.kittichanr.springgrpc.service;
 
 public interface RatingStore {
+    /**
+     * Largest score magnitude a store must accept; rateLaptop rejects scores beyond it, and NaN.
+     */
+    double MAX_SCORE = 1000;
+
+    static boolean isValidScore(double score) {
+        return Math.abs(score) <= MAX_SCORE;
+    }
+
     Rating Add(String laptopID, double score);
+
+    /**
+     * Adds a batch of scores for one laptop in a single update.
+     */
+    Rating AddAll(String laptopID, int count, double sum);
 }
@@ -0,0 +1,100 @@
+package com.kittichanr.springgrpc.service;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+/**
+ * Key manager holding a single key and certificate chain that can be replaced while the TLS
+ * context using it keeps running; new handshakes pick up the replacement.
+ * <p>
+ * Every replacement gets a new alias, so caches keyed by alias, like the one OpenSSL contexts use
+ * to avoid re-encoding the key for every handshake, never serve a stale key. The previous key
+ * stays resolvable for handshakes that chose their alias just before the swap.
+ */
+public final class ReloadingKeyManager extends X509ExtendedKeyManager {
+    private volatile KeyMaterial current;
+    private volatile KeyMaterial previous;
+    private int generation;
+
+    public ReloadingKeyManager(PrivateKey key, X509Certificate[] chain) {
+        update(key, chain);
+    }
+
+    public synchronized void update(PrivateKey key, X509Certificate[] chain) {
+        previous = current;
+        current = new KeyMaterial("pcbook-" + generation++, key, chain.clone());
+    }
+
+    @Override
+    public String[] getClientAliases(String keyType, Principal[] issuers) {
+        KeyMaterial material = current;
+        return material.matches(keyType) ? new String[]{material.alias} : null;
+    }
+
+    @Override
+    public String chooseClientAlias(String[] keyTypes, Principal[] issuers, Socket socket) {
+        KeyMaterial material = current;
+        for (String keyType : keyTypes) {
+            if (material.matches(keyType)) {
+                return material.alias;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String chooseEngineClientAlias(String[] keyTypes, Principal[] issuers, SSLEngine engine) {
+        return chooseClientAlias(keyTypes, issuers, null);
+    }
+
+    @Override
+    public String[] getServerAliases(String keyType, Principal[] issuers) {
+        return getClientAliases(keyType, issuers);
+    }
+
+    @Override
+    public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+        KeyMaterial material = current;
+        return material.matches(keyType) ? material.alias : null;
+    }
+
+    @Override
+    public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+        return chooseServerAlias(keyType, issuers, null);
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(String alias) {
+        KeyMaterial material = find(alias);
+        return material == null ? null : material.chain.clone();
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String alias) {
+        KeyMaterial material = find(alias);
+        return material == null ? null : material.key;
+    }
+
+    private KeyMaterial find(String alias) {
+        KeyMaterial material = current;
+        if (material.alias.equals(alias)) {
+            return material;
+        }
+        material = previous;
+        return material != null && material.alias.equals(alias) ? material : null;
+    }
+
+    private record KeyMaterial(String alias, PrivateKey key, X509Certificate[] chain) {
+        private boolean matches(String keyType) {
+            String algorithm = key.getAlgorithm();
+            // OpenSSL also asks for types like EC_RSA, naming the key and then the signing CA
+            return keyType.equals(algorithm)
+                    || keyType.startsWith(algorithm + "_")
+                    || (algorithm.equals("RSA") && keyType.equals("RSASSA-PSS"));
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.CreateLaptopRequest;
+import com.kittichanr.pcbook.generated.CreateLaptopResult;
+import com.kittichanr.pcbook.generated.CreateLaptopsRequest;
+import com.kittichanr.pcbook.generated.CreateLaptopsResponse;
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.GetLaptopRequest;
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.pcbook.generated.LaptopServiceGrpc;
+import com.kittichanr.pcbook.generated.SearchLaptopRequest;
+import com.kittichanr.pcbook.generated.SearchLaptopResponse;
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Laptop store backed by the LaptopService of another server, so a node can use a remote
+ * catalog, or one shard of it, like a local store. Status codes are mapped back to the
+ * exceptions local stores throw; other failures surface as {@link StatusRuntimeException}.
+ * <p>
+ * Calls are made in the caller's context, so a search is cancelled on the remote server when the
+ * caller's call is. Save, SaveAll and Find fail with DEADLINE_EXCEEDED when the remote server
+ * doesn't answer within the deadline, so a hung node can't hold its callers. Closing the store
+ * shuts its channel down.
+ */
+public class RemoteLaptopStore implements LaptopStore, Closeable {
+    private static final Logger logger = Logger.getLogger(RemoteLaptopStore.class.getName());
+    // laptops a search receives ahead of the caller pulling them
+    private static final int SEARCH_PREFETCH = 16;
+    private static final long DEFAULT_DEADLINE_MILLIS = 10_000;
+
+    private final ManagedChannel channel;
+    private final LaptopServiceGrpc.LaptopServiceBlockingStub blockingStub;
+    private final LaptopServiceGrpc.LaptopServiceStub asyncStub;
+    private final long deadlineMillis;
+
+    public RemoteLaptopStore(ManagedChannel channel) {
+        this(channel, DEFAULT_DEADLINE_MILLIS);
+    }
+
+    public RemoteLaptopStore(ManagedChannel channel, long deadlineMillis) {
+        this.channel = channel;
+        this.deadlineMillis = deadlineMillis;
+        this.blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+        this.asyncStub = LaptopServiceGrpc.newStub(channel);
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        try {
+            blockingStub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS).createLaptop(CreateLaptopRequest.newBuilder().setLaptop(laptop).build());
+        } catch (StatusRuntimeException e) {
+            throw toException(e.getStatus().getCode(), e.getStatus().getDescription(), e);
+        }
+    }
+
+    @Override
+    public List<Exception> SaveAll(List<Laptop> laptops) {
+        CompletableFuture<CreateLaptopsResponse> response = new CompletableFuture<>();
+        StreamObserver<CreateLaptopsRequest> requestObserver = asyncStub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS).createLaptops(new StreamObserver<CreateLaptopsResponse>() {
+            @Override
+            public void onNext(CreateLaptopsResponse value) {
+                response.complete(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                response.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                response.completeExceptionally(new IllegalStateException("create-laptops stream ended without results"));
+            }
+        });
+        requestObserver.onNext(CreateLaptopsRequest.newBuilder().addAllLaptops(laptops).build());
+        requestObserver.onCompleted();
+
+        List<Exception> errors = new ArrayList<>(laptops.size());
+        try {
+            for (CreateLaptopResult result : response.get().getResultsList()) {
+                Status.Code code = Status.fromCodeValue(result.getCode()).getCode();
+                errors.add(code == Status.Code.OK ? null : toException(code, result.getMessage(), null));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.nCopies(laptops.size(), e);
+        } catch (ExecutionException e) {
+            Exception cause = e.getCause() instanceof Exception exception ? exception : e;
+            return Collections.nCopies(laptops.size(), cause);
+        }
+        return errors;
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        try {
+            return blockingStub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS).getLaptop(GetLaptopRequest.newBuilder().setId(id).build()).getLaptop();
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() == Status.Code.NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public LaptopStream Search(Context ctx, Filter filter) {
+        return Search(ctx, filter, null);
+    }
+
+    /**
+     * Starts a search like {@link #Search(Context, Filter)} that also adds itself to the arrivals
+     * queue, from the gRPC thread, each time a laptop or the end of the search arrives. Every entry
+     * stands for exactly one result, so whoever takes it can call Next without waiting; that lets
+     * several searches be merged without a thread per search. The search's onReadyHandler runs
+     * after the entry is added.
+     */
+    RemoteSearch Search(Context ctx, Filter filter, BlockingQueue<RemoteSearch> arrivals) {
+        RemoteSearch search = new RemoteSearch(ctx, arrivals);
+        // started in the caller's context, which cancels the call along with it
+        ctx.run(() -> asyncStub.searchLaptop(SearchLaptopRequest.newBuilder().setFilter(filter).build(), search));
+        return search;
+    }
+
+    @Override
+    public void close() {
+        channel.shutdown();
+    }
+
+    private static Exception toException(Status.Code code, String message, StatusRuntimeException cause) {
+        return switch (code) {
+            case ALREADY_EXISTS -> new AlreadyExistsException(message);
+            case INVALID_ARGUMENT -> new IllegalArgumentException(message, cause);
+            default -> cause != null ? cause : Status.fromCode(code).withDescription(message).asRuntimeException();
+        };
+    }
+
+    /**
+     * Search results received from the remote server, requested a few at a time so a caller that
+     * pulls slowly holds the server back through flow control instead of buffering the catalog.
+     * A search that fails, other than by the caller cancelling it, throws its status from Next.
+     * It is ready once a result has been received, and runs its onReadyHandler for each one.
+     */
+    static class RemoteSearch implements LaptopStream, ClientResponseObserver<SearchLaptopRequest, SearchLaptopResponse> {
+        private static final Object END = new Object();
+
+        private final Context ctx;
+        private final BlockingQueue<RemoteSearch> arrivals;
+        private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        private ClientCallStreamObserver<SearchLaptopRequest> call;
+        private volatile Runnable onReadyHandler;
+        private boolean done;
+
+        private RemoteSearch(Context ctx, BlockingQueue<RemoteSearch> arrivals) {
+            this.ctx = ctx;
+            this.arrivals = arrivals;
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<SearchLaptopRequest> requestStream) {
+            call = requestStream;
+            requestStream.disableAutoRequestWithInitial(SEARCH_PREFETCH);
+        }
+
+        @Override
+        public void onNext(SearchLaptopResponse response) {
+            receive(response.getLaptop());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            receive(ctx.isCancelled() ? END : Status.fromThrowable(t));
+        }
+
+        @Override
+        public void onCompleted() {
+            receive(END);
+        }
+
+        private void receive(Object item) {
+            received.add(item);
+            if (arrivals != null) {
+                arrivals.add(this);
+            }
+            Runnable handler = onReadyHandler;
+            if (handler != null) {
+                handler.run();
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return done || ctx.isCancelled() || !received.isEmpty();
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable handler) {
+            onReadyHandler = handler;
+        }
+
+        @Override
+        public Laptop Next() {
+            if (done) {
+                return null;
+            }
+            try {
+                Object next;
+                do {
+                    if (ctx.isCancelled()) {
+                        logger.info("context is canceled");
+                        done = true;
+                        return null;
+                    }
+                    next = received.poll(100, TimeUnit.MILLISECONDS);
+                } while (next == null);
+
+                if (next == END) {
+                    done = true;
+                    return null;
+                }
+                if (next instanceof Status status) {
+                    done = true;
+                    throw status.augmentDescription("remote search failed").asRuntimeException();
+                }
+                call.request(1);
+                return (Laptop) next;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                call.cancel("search interrupted", e);
+                done = true;
+                return null;
+            }
+        }
+    }
+}
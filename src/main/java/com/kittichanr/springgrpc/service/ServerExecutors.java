@@ -0,0 +1,64 @@
+package com.kittichanr.springgrpc.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors the gRPC server can run service callbacks on, selected by pcbook.server.executor:
+ * <ul>
+ *     <li>default: gRPC's own cached pool, which starts a platform thread for every callback
+ *     that finds no idle one, so blocked calls each hold an OS thread;</li>
+ *     <li>bounded: a fixed pool of pcbook.server.executor.threads platform threads, where
+ *     callbacks beyond that queue up instead of starting threads;</li>
+ *     <li>virtual: a new virtual thread per callback, so a call blocked on the store or on disk
+ *     parks a heap-allocated continuation instead of an OS thread. Needs Java 21.</li>
+ * </ul>
+ */
+public final class ServerExecutors {
+    private ServerExecutors() {
+    }
+
+    /**
+     * Returns the executor for the configured mode, or null to keep gRPC's default. The caller
+     * shuts it down once the server has terminated.
+     */
+    public static ExecutorService create(LaptopServerProperties properties) {
+        String mode = properties.getString("pcbook.server.executor", "default");
+        return switch (mode) {
+            case "default" -> null;
+            case "bounded" -> newBoundedExecutor(properties.getInt("pcbook.server.executor.threads",
+                    Runtime.getRuntime().availableProcessors() * 2));
+            case "virtual" -> newVirtualThreadPerTaskExecutor();
+            default -> throw new IllegalArgumentException("unknown pcbook.server.executor: " + mode);
+        };
+    }
+
+    public static ExecutorService newBoundedExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        // gRPC fails a call whose callback is rejected, so excess callbacks wait in the queue
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "grpc-server-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Looks the factory up at run time, since the build still targets Java 17.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("virtual threads need Java 21 or later, running on " + Runtime.version(), e);
+        } catch (InvocationTargetException e) {
+            // Java 19 and 20 have the method, but it throws unless preview features are enabled
+            throw new IllegalStateException("virtual threads are not available on " + Runtime.version(), e.getCause());
+        }
+    }
+}
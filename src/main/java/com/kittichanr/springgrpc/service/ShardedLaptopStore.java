@@ -0,0 +1,310 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.Laptop;
+import io.grpc.Context;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Laptop store partitioning the catalog over several shards, typically {@link RemoteLaptopStore}s
+ * of other nodes. Laptops are placed on a consistent-hash ring by their UUID: every shard owns
+ * the arcs ending at its virtual nodes, so adding or removing a shard only moves the laptops of
+ * the arcs it gains or loses, about 1/N of the catalog.
+ * <p>
+ * Save and Find go to the owning shard. Search runs on every shard at once and merges their
+ * results into one stream: remote shards stream theirs in the background and are taken in
+ * arrival order, local shards are read in between without a thread of their own. Each shard
+ * search runs in a child of the caller's context, so cancelling the caller cancels them all, and
+ * a shard search that fails fails the merged one with its status. The merged stream is ready
+ * whenever a local shard has laptops left or a remote one has delivered one, and runs its
+ * onReadyHandler from the remote arrivals, so a caller that follows it never waits on a slow shard.
+ */
+public class ShardedLaptopStore implements LaptopStore, Closeable {
+    private static final Logger logger = Logger.getLogger(ShardedLaptopStore.class.getName());
+    private static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final String[] names;
+    private final LaptopStore[] shards;
+    private final long[] ringHashes;
+    private final int[] ringShards;
+    private final ExecutorService executor;
+
+    public ShardedLaptopStore(Map<String, ? extends LaptopStore> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Shards are placed on the ring by name, so a shard keeps its laptops as long as it keeps its
+     * name, whatever the other shards are.
+     */
+    public ShardedLaptopStore(Map<String, ? extends LaptopStore> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("a sharded store needs at least one shard");
+        }
+        this.names = shards.keySet().toArray(new String[0]);
+        this.shards = shards.values().toArray(new LaptopStore[0]);
+
+        long[] points = new long[names.length * virtualNodes];
+        int[] owners = new int[points.length];
+        Integer[] order = new Integer[points.length];
+        for (int shard = 0; shard < names.length; shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                int point = shard * virtualNodes + node;
+                UUID nodeID = UUID.nameUUIDFromBytes((names[shard] + "#" + node).getBytes(StandardCharsets.UTF_8));
+                points[point] = hash(nodeID.getMostSignificantBits(), nodeID.getLeastSignificantBits());
+                owners[point] = shard;
+                order[point] = point;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(points[a], points[b]));
+        this.ringHashes = new long[points.length];
+        this.ringShards = new int[points.length];
+        for (int i = 0; i < order.length; i++) {
+            ringHashes[i] = points[order[i]];
+            ringShards[i] = owners[order[i]];
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "laptop-shard-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        UUID id = ConcurrentUuidMap.parseKey(laptop.getId());
+        if (id == null) {
+            throw new IllegalArgumentException("laptop ID is not a valid UUID: " + laptop.getId());
+        }
+        shards[shardOf(id)].Save(laptop);
+    }
+
+    @Override
+    public List<Exception> SaveAll(List<Laptop> laptops) {
+        List<Exception> errors = new ArrayList<>(Collections.nCopies(laptops.size(), null));
+        List<List<Laptop>> batches = new ArrayList<>();
+        List<List<Integer>> positions = new ArrayList<>();
+        for (int shard = 0; shard < shards.length; shard++) {
+            batches.add(new ArrayList<>());
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < laptops.size(); i++) {
+            Laptop laptop = laptops.get(i);
+            UUID id = ConcurrentUuidMap.parseKey(laptop.getId());
+            if (id == null) {
+                errors.set(i, new IllegalArgumentException("laptop ID is not a valid UUID: " + laptop.getId()));
+                continue;
+            }
+            int shard = shardOf(id);
+            batches.get(shard).add(laptop);
+            positions.get(shard).add(i);
+        }
+
+        // one batch per shard, all shards at once
+        List<Future<List<Exception>>> results = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            LaptopStore store = shards[shard];
+            List<Laptop> batch = batches.get(shard);
+            results.add(batch.isEmpty() ? null : executor.submit(() -> store.SaveAll(batch)));
+        }
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (results.get(shard) == null) {
+                continue;
+            }
+            List<Integer> shardPositions = positions.get(shard);
+            try {
+                List<Exception> shardErrors = results.get(shard).get();
+                for (int j = 0; j < shardPositions.size(); j++) {
+                    errors.set(shardPositions.get(j), shardErrors.get(j));
+                }
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int position : shardPositions) {
+                    errors.set(position, e);
+                }
+            }
+        }
+        return errors;
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        UUID key = ConcurrentUuidMap.parseKey(id);
+        return key == null ? null : shards[shardOf(key)].Find(id);
+    }
+
+    @Override
+    public LaptopStream Search(Context ctx, Filter filter) {
+        Context.CancellableContext searchContext = ctx.withCancellation();
+        BlockingQueue<RemoteLaptopStore.RemoteSearch> arrivals = new LinkedBlockingQueue<>();
+        AtomicReference<Runnable> onReadyHandler = new AtomicReference<>();
+        Runnable notifyArrival = () -> {
+            Runnable handler = onReadyHandler.get();
+            if (handler != null) {
+                handler.run();
+            }
+        };
+        List<LaptopStream> localSearches = new ArrayList<>();
+        int remoteSearches = 0;
+        for (LaptopStore shard : shards) {
+            if (shard instanceof RemoteLaptopStore remote) {
+                remote.Search(searchContext, filter, arrivals).setOnReadyHandler(notifyArrival);
+                remoteSearches++;
+            } else {
+                localSearches.add(shard.Search(searchContext, filter));
+            }
+        }
+        int remoteCount = remoteSearches;
+
+        return new LaptopStream() {
+            private int remoteRunning = remoteCount;
+            private boolean done;
+
+            @Override
+            public boolean isReady() {
+                return done || ctx.isCancelled() || !arrivals.isEmpty() || !localSearches.isEmpty() || remoteRunning == 0;
+            }
+
+            @Override
+            public void setOnReadyHandler(Runnable handler) {
+                onReadyHandler.set(handler);
+            }
+
+            @Override
+            public Laptop Next() {
+                if (done) {
+                    return null;
+                }
+                try {
+                    while (true) {
+                        if (ctx.isCancelled()) {
+                            logger.info("context is canceled");
+                            break;
+                        }
+                        RemoteLaptopStore.RemoteSearch arrived = arrivals.poll();
+                        if (arrived == null) {
+                            // local shards never wait on the network, so they fill in until remote laptops arrive
+                            if (!localSearches.isEmpty()) {
+                                Laptop laptop = localSearches.get(0).Next();
+                                if (laptop != null) {
+                                    return laptop;
+                                }
+                                localSearches.remove(0);
+                                continue;
+                            }
+                            if (remoteRunning == 0) {
+                                break;
+                            }
+                            // only reached by callers that don't wait for isReady
+                            arrived = arrivals.poll(100, TimeUnit.MILLISECONDS);
+                            if (arrived == null) {
+                                continue;
+                            }
+                        }
+                        // the arrival stands for a result already received, so this doesn't wait
+                        Laptop laptop = arrived.Next();
+                        if (laptop != null) {
+                            return laptop;
+                        }
+                        remoteRunning--;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    // a shard that failed, for instance because its node is down, fails the whole search
+                    // rather than leaving its laptops out of it
+                    finish();
+                    throw e;
+                }
+                finish();
+                return null;
+            }
+
+            private void finish() {
+                // stops the shard searches still running and releases the context
+                done = true;
+                searchContext.cancel(null);
+            }
+        };
+    }
+
+    /**
+     * Stops the shard calls still running and closes every shard that holds resources, such as
+     * the channel of a remote shard.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+
+        // a shard failing to close doesn't leave the ones after it open
+        IOException error = null;
+        for (LaptopStore shard : shards) {
+            if (!(shard instanceof Closeable closeable)) {
+                continue;
+            }
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Returns the name of the shard owning the laptop ID.
+     */
+    String shardName(String id) {
+        return names[shardOf(UUID.fromString(id))];
+    }
+
+    private int shardOf(UUID id) {
+        long key = hash(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        int index = Arrays.binarySearch(ringHashes, key);
+        if (index < 0) {
+            // the owner is the first virtual node at or after the key, wrapping around the ring
+            index = -index - 1;
+            if (index == ringHashes.length) {
+                index = 0;
+            }
+        }
+        return ringShards[index];
+    }
+
+    private static long hash(long msb, long lsb) {
+        // random UUIDs are already well mixed, but name-based or hand-made ones may not be
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,125 @@
+package com.kittichanr.springgrpc.service;
+
+import java.util.Arrays;
+
+/**
+ * Row ids of one column sorted ascending by their key, so a one-sided range predicate maps to a
+ * contiguous slice found by binary search. Not thread-safe: callers guard it with their own lock.
+ */
+public class SortedColumnIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] rows;
+    private int size;
+
+    public SortedColumnIndex() {
+        keys = new long[0];
+        rows = new int[0];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int row(int position) {
+        return rows[position];
+    }
+
+    /**
+     * Returns the first position whose key is {@code >= key}; positions from there to
+     * {@link #size()} hold the rows matching {@code column >= key}.
+     */
+    public int lowerBound(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the first position whose key is {@code > key}; positions before it hold the rows
+     * matching {@code column <= key}.
+     */
+    public int upperBound(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Inserts one row after any rows with the same key, shifting the tail of the index. Meant for
+     * small indexes; large ones take new rows in batches through {@link #merge}.
+     */
+    public void add(long key, int row) {
+        if (size == keys.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, size << 1);
+            keys = Arrays.copyOf(keys, capacity);
+            rows = Arrays.copyOf(rows, capacity);
+        }
+
+        int position = upperBound(key);
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        System.arraycopy(rows, position, rows, position + 1, size - position);
+        keys[position] = key;
+        rows[position] = row;
+        size++;
+    }
+
+    /**
+     * Moves every row of {@code other} into this index, leaving {@code other} empty.
+     */
+    public void merge(SortedColumnIndex other) {
+        long[] mergedKeys = new long[size + other.size];
+        int[] mergedRows = new int[size + other.size];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] <= other.keys[j]) {
+                mergedKeys[k] = keys[i];
+                mergedRows[k++] = rows[i++];
+            } else {
+                mergedKeys[k] = other.keys[j];
+                mergedRows[k++] = other.rows[j++];
+            }
+        }
+        while (i < size) {
+            mergedKeys[k] = keys[i];
+            mergedRows[k++] = rows[i++];
+        }
+        while (j < other.size) {
+            mergedKeys[k] = other.keys[j];
+            mergedRows[k++] = other.rows[j++];
+        }
+
+        keys = mergedKeys;
+        rows = mergedRows;
+        size = k;
+        other.size = 0;
+    }
+
+    /**
+     * Maps a double to a long with the same ordering, so double columns can share this index.
+     */
+    public static long sortableKey(double value) {
+        // adding 0.0 folds -0.0 into 0.0, matching how the filter compares doubles
+        long bits = Double.doubleToLongBits(value + 0.0);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,53 @@
+package com.kittichanr.springgrpc.service;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rating store keeping each laptop's count and sum packed into one {@link LongAdder}, so
+ * concurrent ratings of the same laptop add to separate cells instead of contending on one map bin
+ * or CAS word, and nothing spins or locks. The count takes the low bits and the sum, in fixed
+ * point, the bits above it; a score is added to both with one addition, so every cell, and the
+ * rating read from their total, holds whole scores only: it may miss a concurrent score, but its
+ * count and sum always match.
+ * <p>
+ * The packing bounds what a laptop can hold: up to 2^26 (about 67 million) ratings, a sum within
+ * about two billion, and scores rounded to 1/64.
+ */
+public class StripedRatingStore implements RatingStore {
+    private static final int COUNT_BITS = 26;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final double SUM_SCALE = 64;
+
+    private final ConcurrentUuidMap<LongAdder> data;
+
+    public StripedRatingStore() {
+        data = new ConcurrentUuidMap<>();
+    }
+
+    @Override
+    public Rating Add(String laptopID, double score) {
+        return AddAll(laptopID, 1, score);
+    }
+
+    @Override
+    public Rating AddAll(String laptopID, int count, double sum) {
+        if (count < 1 || !(Math.abs(sum) <= MAX_SCORE * count)) {
+            throw new IllegalArgumentException("scores must be within " + MAX_SCORE + ": " + count + " scores summing to " + sum);
+        }
+
+        // lock-free get first, the segment is only locked to add the laptop's first cell
+        UUID key = UUID.fromString(laptopID);
+        LongAdder cell = data.get(key);
+        if (cell == null) {
+            LongAdder created = new LongAdder();
+            LongAdder existing = data.putIfAbsent(key, created);
+            cell = existing != null ? existing : created;
+        }
+
+        // two's complement keeps a negative sum in the upper bits from disturbing the count
+        cell.add((Math.round(sum * SUM_SCALE) << COUNT_BITS) + count);
+        long total = cell.sum();
+        return new Rating((int) (total & COUNT_MASK), (total >> COUNT_BITS) / SUM_SCALE);
+    }
+}
@@ -0,0 +1,104 @@
+package com.kittichanr.springgrpc.service;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from a UUID, kept as its two 64-bit halves, to a non-negative long.
+ * Keys and values live in three parallel primitive arrays, so an entry costs 24 bytes of
+ * table space instead of a String key, a boxed value and a node object. Entries can't be
+ * removed. Not thread-safe: callers guard it with their own lock.
+ */
+public class UuidOffsetMap {
+    public static final long ABSENT = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] mostSigBits;
+    private long[] leastSigBits;
+    private long[] values;
+    private int size;
+
+    public UuidOffsetMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value stored for the key, or {@link #ABSENT}.
+     */
+    public long get(long msb, long lsb) {
+        int mask = values.length - 1;
+        for (int slot = hash(msb, lsb) & mask; ; slot = (slot + 1) & mask) {
+            long value = values[slot];
+            if (value == ABSENT) {
+                return ABSENT;
+            }
+            if (mostSigBits[slot] == msb && leastSigBits[slot] == lsb) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Stores the value unless the key is already present; returns whether it was stored.
+     */
+    public boolean putIfAbsent(long msb, long lsb, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must not be negative: " + value);
+        }
+        // keep the load factor at or below 1/2 so probe sequences stay short
+        if ((size + 1) << 1 > values.length) {
+            resize();
+        }
+        if (!insert(msb, lsb, value)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    private boolean insert(long msb, long lsb, long value) {
+        int mask = values.length - 1;
+        for (int slot = hash(msb, lsb) & mask; ; slot = (slot + 1) & mask) {
+            if (values[slot] == ABSENT) {
+                mostSigBits[slot] = msb;
+                leastSigBits[slot] = lsb;
+                values[slot] = value;
+                return true;
+            }
+            if (mostSigBits[slot] == msb && leastSigBits[slot] == lsb) {
+                return false;
+            }
+        }
+    }
+
+    private void resize() {
+        long[] oldMostSigBits = mostSigBits;
+        long[] oldLeastSigBits = leastSigBits;
+        long[] oldValues = values;
+        allocate(oldValues.length << 1);
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] != ABSENT) {
+                insert(oldMostSigBits[slot], oldLeastSigBits[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, ABSENT);
+    }
+
+    private static int hash(long msb, long lsb) {
+        // random UUIDs are already well mixed, but name-based or hand-made ones may not be
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
@@ -0,0 +1,103 @@
+package com.kittichanr.springgrpc.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CachingImageStoreTest {
+
+    @Test
+    public void evictLeastRecentlyUsed(@TempDir Path imageFolder) throws Exception {
+        try (DiskImageStore diskImageStore = new DiskImageStore(imageFolder.toString())) {
+            CachingImageStore imageStore = new CachingImageStore(diskImageStore, 2500, true);
+            byte[] imageA = ImageStoreFixtures.randomImage(1000);
+            String imageIDA = ImageStoreFixtures.save(imageStore, imageA);
+            String imageIDB = ImageStoreFixtures.save(imageStore, ImageStoreFixtures.randomImage(1000));
+            String imageIDC = ImageStoreFixtures.save(imageStore, ImageStoreFixtures.randomImage(1000));
+
+            ImageStoreFixtures.assertImage(imageA, imageStore.Read(imageIDA).get(5, TimeUnit.SECONDS));
+            ImageStoreFixtures.assertImage(imageA, imageStore.Read(imageIDA).get(5, TimeUnit.SECONDS));
+            imageStore.Read(imageIDB).get(5, TimeUnit.SECONDS);
+            imageStore.Read(imageIDC).get(5, TimeUnit.SECONDS); // evicts A
+            ImageStoreFixtures.assertImage(imageA, imageStore.Read(imageIDA).get(5, TimeUnit.SECONDS)); // evicts B
+
+            Assertions.assertEquals(1, imageStore.getHits());
+            Assertions.assertEquals(4, imageStore.getMisses());
+            Assertions.assertEquals(2, imageStore.getEvictions());
+            Assertions.assertEquals(2, imageStore.getSize());
+            Assertions.assertEquals(2000, imageStore.getUsedBytes());
+
+            Assertions.assertTrue(imageStore.Delete(imageIDA).get(5, TimeUnit.SECONDS));
+            Assertions.assertNull(imageStore.Read(imageIDA).get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1000, imageStore.getUsedBytes());
+        }
+    }
+
+    @Test
+    public void coalesceConcurrentReads(@TempDir Path imageFolder) throws Exception {
+        try (DiskImageStore diskImageStore = new DiskImageStore(imageFolder.toString())) {
+            byte[] image = ImageStoreFixtures.randomImage(1000);
+            String imageID = ImageStoreFixtures.save(diskImageStore, image);
+
+            // holds the delegate's reads back until both cache reads have been made
+            AtomicInteger delegateReads = new AtomicInteger();
+            CompletableFuture<Void> released = new CompletableFuture<>();
+            ImageStore slowStore = new ForwardingImageStore(diskImageStore) {
+                @Override
+                public CompletableFuture<ByteBuffer> Read(String imageID) {
+                    delegateReads.incrementAndGet();
+                    return released.thenCompose(ignored -> super.Read(imageID));
+                }
+            };
+            CachingImageStore imageStore = new CachingImageStore(slowStore, 2500, false);
+
+            CompletableFuture<ByteBuffer> first = imageStore.Read(imageID);
+            CompletableFuture<ByteBuffer> second = imageStore.Read(imageID);
+            released.complete(null);
+
+            ImageStoreFixtures.assertImage(image, first.get(5, TimeUnit.SECONDS));
+            ImageStoreFixtures.assertImage(image, second.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, delegateReads.get());
+            Assertions.assertEquals(1, imageStore.getMisses());
+            Assertions.assertEquals(1, imageStore.getHits());
+
+            // cached by the shared read
+            ImageStoreFixtures.assertImage(image, imageStore.Read(imageID).get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, delegateReads.get());
+        }
+    }
+
+    private static class ForwardingImageStore implements ImageStore {
+        private final ImageStore delegate;
+
+        private ForwardingImageStore(ImageStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ImageWriter Open(String laptopID, String imageType) {
+            return delegate.Open(laptopID, imageType);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> Delete(String imageID) {
+            return delegate.Delete(imageID);
+        }
+
+        @Override
+        public ImageMetaData Find(String imageID) {
+            return delegate.Find(imageID);
+        }
+
+        @Override
+        public CompletableFuture<ByteBuffer> Read(String imageID) {
+            return delegate.Read(imageID);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.CreateLaptopRequest;
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.LaptopServiceGrpc;
+import com.kittichanr.pcbook.generated.RateLaptopRequest;
+import com.kittichanr.pcbook.generated.RateLaptopResponse;
+import com.kittichanr.springgrpc.sample.Generator;
+import io.grpc.Context;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+class ChannelPoolTest {
+    private final Generator generator = new Generator(new Random());
+    private InMemoryLaptopStore[] laptopStores;
+    private LaptopServer[] servers;
+    private String[] serverNames;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        laptopStores = new InMemoryLaptopStore[2];
+        servers = new LaptopServer[2];
+        serverNames = new String[2];
+        for (int i = 0; i < servers.length; i++) {
+            laptopStores[i] = new InMemoryLaptopStore();
+            serverNames[i] = InProcessServerBuilder.generateName();
+            servers[i] = new LaptopServer(InProcessServerBuilder.forName(serverNames[i]).directExecutor(), 0,
+                    laptopStores[i], new DiskImageStore("img"), new InMemoryRatingStore());
+            servers[i].start();
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (LaptopServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    void roundRobinAcrossTargets() throws Exception {
+        LaptopClient client = LaptopClient.newBuilder()
+                .addTarget(InProcessChannelBuilder.forName(serverNames[0]).directExecutor())
+                .addTarget(InProcessChannelBuilder.forName(serverNames[1]).directExecutor())
+                .channelsPerTarget(2)
+                .build();
+        try {
+            for (int i = 0; i < 8; i++) {
+                client.createLaptop(generator.NewLaptop());
+            }
+        } finally {
+            client.shutdown();
+        }
+
+        Assertions.assertEquals(4, size(laptopStores[0]));
+        Assertions.assertEquals(4, size(laptopStores[1]));
+    }
+
+    @Test
+    void leastOutstandingAvoidsBusyChannel() throws Exception {
+        ChannelPool pool = new ChannelPool(List.of(
+                InProcessChannelBuilder.forName(serverNames[0]).directExecutor().build(),
+                InProcessChannelBuilder.forName(serverNames[1]).directExecutor().build()
+        ), ChannelPool.LoadBalancing.LEAST_OUTSTANDING);
+        try {
+            // an open stream keeps the first channel busy
+            StreamObserver<RateLaptopRequest> stream = LaptopServiceGrpc.newStub(pool).rateLaptop(new StreamObserver<RateLaptopResponse>() {
+                @Override
+                public void onNext(RateLaptopResponse response) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                }
+            });
+            Assertions.assertEquals(1, pool.getOutstanding(0));
+
+            LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(pool);
+            for (int i = 0; i < 3; i++) {
+                stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+            }
+            Assertions.assertEquals(0, size(laptopStores[0]));
+            Assertions.assertEquals(3, size(laptopStores[1]));
+
+            stream.onCompleted();
+            Assertions.assertEquals(0, pool.getOutstanding(0));
+            Assertions.assertEquals(0, pool.getOutstanding(1));
+        } finally {
+            pool.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static int size(InMemoryLaptopStore laptopStore) {
+        int size = 0;
+        LaptopStream stream = laptopStore.Search(Context.ROOT, Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build());
+        while (stream.Next() != null) {
+            size++;
+        }
+        return size;
+    }
+}
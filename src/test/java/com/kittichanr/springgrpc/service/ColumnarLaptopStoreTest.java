@@ -0,0 +1,160 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.CPU;
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.pcbook.generated.Memory;
+import com.kittichanr.springgrpc.sample.Generator;
+import io.grpc.Context;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+class ColumnarLaptopStoreTest {
+
+    @Test
+    public void saveAndFind() throws Exception {
+        ColumnarLaptopStore laptopStore = new ColumnarLaptopStore();
+        Laptop laptop = new Generator(new Random()).NewLaptop();
+        laptopStore.Save(laptop);
+
+        Assertions.assertEquals(laptop, laptopStore.Find(laptop.getId()));
+        Assertions.assertNull(laptopStore.Find("unknown"));
+        Assertions.assertThrows(AlreadyExistsException.class, () -> laptopStore.Save(laptop));
+    }
+
+    @Test
+    public void saveAll() throws Exception {
+        ColumnarLaptopStore laptopStore = new ColumnarLaptopStore();
+        Generator generator = new Generator(new Random());
+        Laptop laptop = generator.NewLaptop();
+        Laptop other = generator.NewLaptop();
+        Laptop invalid = generator.NewLaptop().toBuilder().setId("invalid").build();
+
+        List<Exception> errors = laptopStore.SaveAll(List.of(laptop, invalid, laptop, other));
+
+        Assertions.assertNull(errors.get(0));
+        Assertions.assertInstanceOf(IllegalArgumentException.class, errors.get(1));
+        Assertions.assertInstanceOf(AlreadyExistsException.class, errors.get(2));
+        Assertions.assertNull(errors.get(3));
+        Assertions.assertEquals(laptop, laptopStore.Find(laptop.getId()));
+        Assertions.assertEquals(other, laptopStore.Find(other.getId()));
+    }
+
+    @Test
+    public void search() throws Exception {
+        ColumnarLaptopStore laptopStore = new ColumnarLaptopStore();
+        Generator generator = new Generator(new Random());
+        Memory gigabytes8 = Memory.newBuilder().setValue(8).setUnit(Memory.Unit.GIGABYTE).build();
+        Memory megabytes4096 = Memory.newBuilder().setValue(4096).setUnit(Memory.Unit.MEGABYTE).build();
+        Memory gigabytes16 = Memory.newBuilder().setValue(16).setUnit(Memory.Unit.GIGABYTE).build();
+
+        Set<String> expected = new HashSet<>();
+        // enough laptops for part of them to be merged into the sorted indexes
+        for (int i = 0; i < 3000; i++) {
+            Laptop.Builder builder = generator.NewLaptop().toBuilder()
+                    .setPriceUsd(2000)
+                    .setCpu(CPU.newBuilder().setNumberCores(4).setMinGhz(3).build())
+                    .setRam(gigabytes16);
+
+            switch (i % 5) {
+                case 0 -> builder.setPriceUsd(3500);
+                case 1 -> builder.setCpu(CPU.newBuilder().setNumberCores(2).setMinGhz(3).build());
+                case 2 -> builder.setCpu(CPU.newBuilder().setNumberCores(8).setMinGhz(2).build());
+                case 3 -> builder.setRam(megabytes4096);
+                default -> {
+                }
+            }
+
+            Laptop laptop = builder.build();
+            if (i % 5 == 4) {
+                expected.add(laptop.getId());
+            }
+            laptopStore.Save(laptop);
+        }
+
+        Filter filter = Filter.newBuilder()
+                .setMaxPriceUsd(3200)
+                .setMinCpuCores(4)
+                .setMinCpuGhz(2.5)
+                .setMinRam(gigabytes8)
+                .build();
+
+        List<String> found = searchIDs(laptopStore, filter);
+
+        Assertions.assertEquals(expected.size(), found.size());
+        Assertions.assertEquals(expected, new HashSet<>(found));
+    }
+
+    @Test
+    public void searchMatchesFullScan() throws Exception {
+        ColumnarLaptopStore laptopStore = new ColumnarLaptopStore();
+        Generator generator = new Generator(new Random());
+        List<Laptop> laptops = new LinkedList<>();
+        for (int i = 0; i < 5000; i++) {
+            Laptop laptop = generator.NewLaptop();
+            laptops.add(laptop);
+            laptopStore.Save(laptop);
+        }
+
+        Filter[] filters = {
+                Filter.newBuilder().setMaxPriceUsd(1600).build(),
+                Filter.newBuilder().setMaxPriceUsd(4000).setMinCpuCores(7).build(),
+                Filter.newBuilder().setMaxPriceUsd(4000).setMinCpuGhz(3.4).build(),
+                Filter.newBuilder().setMaxPriceUsd(3000).setMinCpuCores(4).setMinCpuGhz(2.5)
+                        .setMinRam(Memory.newBuilder().setValue(60).setUnit(Memory.Unit.GIGABYTE).build())
+                        .build(),
+        };
+
+        for (Filter filter : filters) {
+            Set<String> expected = new HashSet<>();
+            for (Laptop laptop : laptops) {
+                if (laptop.getPriceUsd() <= filter.getMaxPriceUsd()
+                        && laptop.getCpu().getNumberCores() >= filter.getMinCpuCores()
+                        && laptop.getCpu().getMinGhz() >= filter.getMinCpuGhz()
+                        && MemorySize.toBit(laptop.getRam()) >= MemorySize.toBit(filter.getMinRam())) {
+                    expected.add(laptop.getId());
+                }
+            }
+
+            List<String> found = searchIDs(laptopStore, filter);
+
+            Assertions.assertEquals(expected.size(), found.size());
+            Assertions.assertEquals(expected, new HashSet<>(found));
+        }
+    }
+
+    @Test
+    public void searchSkipsUnmergedRows() throws Exception {
+        ColumnarLaptopStore laptopStore = new ColumnarLaptopStore();
+        Generator generator = new Generator(new Random());
+        Laptop cheap = null;
+        // 3500 rows fill both merged levels and leave the rest unmerged, none of which should be scanned whole
+        for (int i = 0; i < 3500; i++) {
+            Laptop laptop = generator.NewLaptop().toBuilder().setPriceUsd(i == 3400 ? 500 : 2000).build();
+            if (i == 3400) {
+                cheap = laptop;
+            }
+            laptopStore.Save(laptop);
+        }
+
+        List<String> found = searchIDs(laptopStore, Filter.newBuilder().setMaxPriceUsd(1000).build());
+
+        Assertions.assertEquals(List.of(cheap.getId()), found);
+        Assertions.assertEquals(1, laptopStore.getScannedRows());
+    }
+
+    private List<String> searchIDs(LaptopStore laptopStore, Filter filter) {
+        List<String> found = new LinkedList<>();
+        LaptopStream stream = laptopStore.Search(Context.current(), filter);
+        for (Laptop laptop = stream.Next(); laptop != null; laptop = stream.Next()) {
+            found.add(laptop.getId());
+        }
+        return found;
+    }
+}
@@ -0,0 +1,80 @@
+package com.kittichanr.springgrpc.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class ConcurrentUuidMapTest {
+
+    @Test
+    public void putGetRemove() {
+        ConcurrentUuidMap<String> map = new ConcurrentUuidMap<>();
+        UUID key = UUID.randomUUID();
+
+        Assertions.assertNull(map.putIfAbsent(key, "a"));
+        Assertions.assertEquals("a", map.putIfAbsent(key, "b"));
+        Assertions.assertEquals("a", map.put(key, "c"));
+        Assertions.assertEquals("cd", map.merge(key, "d", String::concat));
+        Assertions.assertEquals("cd", map.get(key));
+        Assertions.assertEquals(1, map.size());
+
+        Assertions.assertEquals("cd", map.remove(key));
+        Assertions.assertNull(map.get(key));
+        Assertions.assertNull(map.remove(key));
+        Assertions.assertEquals(0, map.size());
+
+        // a removed key can be stored again
+        Assertions.assertNull(map.putIfAbsent(key, "e"));
+        Assertions.assertEquals("e", map.get(key));
+
+        Assertions.assertEquals(key, ConcurrentUuidMap.parseKey(key.toString()));
+        Assertions.assertNull(ConcurrentUuidMap.parseKey("1-1-1-1-1"));
+        Assertions.assertNull(ConcurrentUuidMap.parseKey("invalid"));
+    }
+
+    @Test
+    public void concurrentPutAndGet() throws Exception {
+        ConcurrentUuidMap<UUID> map = new ConcurrentUuidMap<>();
+        int threads = 8;
+        int perThread = 5000;
+
+        List<Callable<Set<UUID>>> tasks = new LinkedList<>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                Set<UUID> keys = new HashSet<>();
+                for (int i = 0; i < perThread; i++) {
+                    UUID key = UUID.randomUUID();
+                    keys.add(key);
+                    map.put(key, key);
+                    // a reader on another thread may be racing with a resize of this segment
+                    Assertions.assertEquals(key, map.get(key));
+                }
+                return keys;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Set<UUID> expected = new HashSet<>();
+        for (Future<Set<UUID>> future : executor.invokeAll(tasks)) {
+            expected.addAll(future.get());
+        }
+        executor.shutdown();
+
+        Assertions.assertEquals(expected.size(), map.size());
+        Set<UUID> iterated = new HashSet<>();
+        for (Iterator<UUID> values = map.values(); values.hasNext(); ) {
+            iterated.add(values.next());
+        }
+        Assertions.assertEquals(expected, iterated);
+    }
+}
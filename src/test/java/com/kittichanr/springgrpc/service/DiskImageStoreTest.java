@@ -0,0 +1,153 @@
+package com.kittichanr.springgrpc.service;
+
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class DiskImageStoreTest {
+
+    @Test
+    public void saveImage(@TempDir Path imageFolder) throws Exception {
+        try (DiskImageStore imageStore = new DiskImageStore(imageFolder.toString())) {
+            byte[] image = ImageStoreFixtures.randomImage(5000);
+
+            String imageID = ImageStoreFixtures.save(imageStore, image);
+
+            Assertions.assertArrayEquals(image, Files.readAllBytes(imageFolder.resolve(imageID + ".jpg")));
+            Assertions.assertTrue(imageStore.Delete(imageID).get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(listFiles(imageFolder).isEmpty());
+        }
+    }
+
+    @Test
+    public void abortAfterCommitKeepsImage(@TempDir Path imageFolder) throws Exception {
+        try (DiskImageStore imageStore = new DiskImageStore(imageFolder.toString())) {
+            byte[] image = ImageStoreFixtures.randomImage(5000);
+            ImageWriter writer = imageStore.Open(UUID.randomUUID().toString(), ".jpg");
+            writer.Write(ByteString.copyFrom(image));
+            CompletableFuture<String> committed = writer.Commit();
+            // e.g. the client cancels the call after half-closing it
+            writer.Abort();
+
+            String imageID = committed.get(5, TimeUnit.SECONDS);
+            Assertions.assertArrayEquals(image, Files.readAllBytes(imageFolder.resolve(imageID + ".jpg")));
+            Assertions.assertNotNull(imageStore.Read(imageID).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void failedSyncRemovesFile(@TempDir Path imageFolder) throws Exception {
+        for (boolean contentAddressed : new boolean[]{false, true}) {
+            List<FileChannel> synced = new CopyOnWriteArrayList<>();
+            FsyncBatcher failingBatcher = new FsyncBatcher(imageFolder) {
+                @Override
+                public CompletableFuture<Void> sync(FileChannel channel) {
+                    synced.add(channel);
+                    return CompletableFuture.failedFuture(new IOException("disk full"));
+                }
+            };
+            ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
+            try (DiskImageStore imageStore = new DiskImageStore(imageFolder.toString(), ioExecutor, failingBatcher, contentAddressed)) {
+                ImageWriter writer = imageStore.Open(UUID.randomUUID().toString(), ".jpg");
+                writer.Write(ByteString.copyFrom(ImageStoreFixtures.randomImage(5000)));
+
+                Assertions.assertThrows(ExecutionException.class, () -> writer.Commit().get(5, TimeUnit.SECONDS));
+                // the call's abort comes too late to help, the failed commit cleans up by itself
+                writer.Abort();
+
+                Assertions.assertEquals(1, synced.size());
+                Assertions.assertFalse(synced.get(0).isOpen());
+                Assertions.assertTrue(listFiles(imageFolder).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void closeStopsThreads(@TempDir Path imageFolder) throws Exception {
+        ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
+        DiskImageStore imageStore = new DiskImageStore(imageFolder.toString(), ioExecutor, false);
+        String imageID = ImageStoreFixtures.save(imageStore, ImageStoreFixtures.randomImage(5000));
+
+        imageStore.close();
+
+        Assertions.assertTrue(ioExecutor.isTerminated());
+        String batcherName = "fsync-batcher-" + imageFolder.getFileName();
+        Assertions.assertTrue(Thread.getAllStackTraces().keySet().stream()
+                .noneMatch(thread -> thread.getName().equals(batcherName)));
+        // what was committed before closing is still there
+        Assertions.assertTrue(Files.exists(imageFolder.resolve(imageID + ".jpg")));
+    }
+
+    @Test
+    public void readRunsOnIoExecutor(@TempDir Path imageFolder) throws Exception {
+        AtomicInteger tasks = new AtomicInteger();
+        ExecutorService ioExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>()) {
+            @Override
+            protected void beforeExecute(Thread thread, Runnable task) {
+                tasks.incrementAndGet();
+            }
+        };
+        try (DiskImageStore imageStore = new DiskImageStore(imageFolder.toString(), ioExecutor, false)) {
+            byte[] image = ImageStoreFixtures.randomImage(5000);
+            String imageID = ImageStoreFixtures.save(imageStore, image);
+            int tasksBeforeRead = tasks.get();
+
+            ByteBuffer imageData = imageStore.Read(imageID).get(5, TimeUnit.SECONDS);
+
+            Assertions.assertEquals(tasksBeforeRead + 1, tasks.get());
+            ImageStoreFixtures.assertImage(image, imageData);
+            Assertions.assertNull(imageStore.Read(UUID.randomUUID().toString()).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void deduplicateContent(@TempDir Path imageFolder) throws Exception {
+        try (DiskImageStore imageStore = new DiskImageStore(imageFolder.toString(), true)) {
+            byte[] image = ImageStoreFixtures.randomImage(5000);
+
+            String imageID1 = ImageStoreFixtures.save(imageStore, image);
+            String imageID2 = ImageStoreFixtures.save(imageStore, image);
+            String otherImageID = ImageStoreFixtures.save(imageStore, ImageStoreFixtures.randomImage(5000));
+
+            Assertions.assertNotEquals(imageID1, imageID2);
+            List<Path> files = listFiles(imageFolder);
+            Assertions.assertEquals(2, files.size());
+
+            // the shared blob stays until its last image is deleted
+            Assertions.assertTrue(imageStore.Delete(imageID1).get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(2, listFiles(imageFolder).size());
+            Assertions.assertTrue(imageStore.Delete(imageID2).get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, listFiles(imageFolder).size());
+            Assertions.assertFalse(imageStore.Delete(imageID2).get(5, TimeUnit.SECONDS));
+
+            Assertions.assertTrue(imageStore.Delete(otherImageID).get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(listFiles(imageFolder).isEmpty());
+        }
+    }
+
+    private List<Path> listFiles(Path folder) throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+}
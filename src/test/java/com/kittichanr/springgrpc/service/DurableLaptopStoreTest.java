@@ -0,0 +1,242 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.springgrpc.sample.Generator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class DurableLaptopStoreTest {
+
+    @Test
+    public void replayLogOnRestart(@TempDir Path folder) throws Exception {
+        List<Laptop> laptops = randomLaptops(20);
+        try (DurableLaptopStore store = new DurableLaptopStore(folder, new InMemoryLaptopStore(), 1024, 100)) {
+            for (Laptop laptop : laptops) {
+                store.Save(laptop);
+            }
+            Assertions.assertThrows(AlreadyExistsException.class, () -> store.Save(laptops.get(0)));
+        }
+
+        try (DurableLaptopStore store = new DurableLaptopStore(folder, new InMemoryLaptopStore(), 1024, 100)) {
+            for (Laptop laptop : laptops) {
+                Assertions.assertEquals(laptop, store.Find(laptop.getId()));
+            }
+        }
+    }
+
+    @Test
+    public void snapshotCompactsLog(@TempDir Path folder) throws Exception {
+        List<Laptop> before = randomLaptops(10);
+        List<Laptop> after = randomLaptops(5);
+        try (DurableLaptopStore store = new DurableLaptopStore(folder, new ColumnarLaptopStore(), 1 << 20, 100)) {
+            for (Laptop laptop : before) {
+                store.Save(laptop);
+            }
+            store.Snapshot().get(5, TimeUnit.SECONDS);
+            for (Laptop laptop : after) {
+                store.Save(laptop);
+            }
+        }
+
+        // only the snapshot and the segment written after it are left
+        List<String> files = listFiles(folder);
+        Assertions.assertEquals(1, files.stream().filter(name -> name.endsWith(".snap")).count());
+        Assertions.assertEquals(1, files.stream().filter(name -> name.endsWith(".log")).count());
+
+        try (DurableLaptopStore store = new DurableLaptopStore(folder, new ColumnarLaptopStore(), 1 << 20, 100)) {
+            for (Laptop laptop : before) {
+                Assertions.assertEquals(laptop, store.Find(laptop.getId()));
+            }
+            for (Laptop laptop : after) {
+                Assertions.assertEquals(laptop, store.Find(laptop.getId()));
+            }
+        }
+    }
+
+    @Test
+    public void truncateTornTail(@TempDir Path folder) throws Exception {
+        List<Laptop> laptops = randomLaptops(3);
+        try (DurableLaptopStore store = new DurableLaptopStore(folder, new InMemoryLaptopStore(), 1 << 20, 100)) {
+            for (Laptop laptop : laptops) {
+                store.Save(laptop);
+            }
+        }
+
+        // a record whose length prefix promises more bytes than were written before a crash
+        Path segment;
+        try (Stream<Path> files = Files.list(folder)) {
+            segment = files.filter(file -> file.toString().endsWith(".log")).sorted().findFirst().orElseThrow();
+        }
+        long validLength = Files.size(segment);
+        Files.write(segment, new byte[]{100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (DurableLaptopStore store = new DurableLaptopStore(folder, new InMemoryLaptopStore(), 1 << 20, 100)) {
+            for (Laptop laptop : laptops) {
+                Assertions.assertEquals(laptop, store.Find(laptop.getId()));
+            }
+        }
+        Assertions.assertEquals(validLength, Files.size(segment));
+    }
+
+    @Test
+    public void discardFailedAppend(@TempDir Path folder) throws Exception {
+        List<Laptop> laptops = randomLaptops(3);
+        AtomicBoolean failNextWrite = new AtomicBoolean();
+        DurableLaptopStore.SegmentOpener opener = path -> new FailingFileChannel(
+                FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), failNextWrite);
+        try (DurableLaptopStore store = new DurableLaptopStore(folder, new InMemoryLaptopStore(), 1 << 20, 100, opener)) {
+            store.Save(laptops.get(0));
+            failNextWrite.set(true);
+            Assertions.assertThrows(IOException.class, () -> store.Save(laptops.get(1)));
+            store.Save(laptops.get(2));
+        }
+
+        // the torn record is gone, so the laptop logged after it is replayed
+        try (DurableLaptopStore store = new DurableLaptopStore(folder, new InMemoryLaptopStore(), 1 << 20, 100)) {
+            Assertions.assertEquals(laptops.get(0), store.Find(laptops.get(0).getId()));
+            Assertions.assertNull(store.Find(laptops.get(1).getId()));
+            Assertions.assertEquals(laptops.get(2), store.Find(laptops.get(2).getId()));
+        }
+    }
+
+    private List<Laptop> randomLaptops(int count) {
+        Generator generator = new Generator(new Random());
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            laptops.add(generator.NewLaptop());
+        }
+        return laptops;
+    }
+
+    private List<String> listFiles(Path folder) throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Channel whose next gathering write, once armed, stops halfway through its first buffer and
+     * fails, leaving a torn record behind.
+     */
+    private static class FailingFileChannel extends FileChannel {
+        private final FileChannel channel;
+        private final AtomicBoolean failNextWrite;
+
+        private FailingFileChannel(FileChannel channel, AtomicBoolean failNextWrite) {
+            this.channel = channel;
+            this.failNextWrite = failNextWrite;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            if (failNextWrite.getAndSet(false)) {
+                ByteBuffer torn = srcs[offset].duplicate();
+                torn.limit(torn.position() + torn.remaining() / 2);
+                channel.write(torn);
+                throw new IOException("injected write failure");
+            }
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.pcbook.generated.SearchLaptopResponse;
+import com.kittichanr.springgrpc.sample.Generator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+class EncodedSearchResponseMarshallerTest {
+
+    @Test
+    public void reusesBytesForEqualCopies() throws Exception {
+        EncodedSearchResponseMarshaller marshaller = new EncodedSearchResponseMarshaller(10);
+        Laptop laptop = new Generator(new Random()).NewLaptop();
+        Laptop copy = Laptop.parseFrom(laptop.toByteArray());
+
+        Assertions.assertEquals(laptop, roundTrip(marshaller, laptop));
+        Assertions.assertEquals(copy, roundTrip(marshaller, copy));
+        Assertions.assertEquals(1, marshaller.getMisses());
+        Assertions.assertEquals(1, marshaller.getHits());
+
+        // same ID, different content
+        Laptop updated = laptop.toBuilder().setPriceUsd(laptop.getPriceUsd() + 1).build();
+        Assertions.assertEquals(updated, roundTrip(marshaller, updated));
+        Assertions.assertEquals(2, marshaller.getMisses());
+        Assertions.assertEquals(1, marshaller.getHits());
+    }
+
+    @Test
+    public void dropsLeastRecentlyStreamed() throws Exception {
+        EncodedSearchResponseMarshaller marshaller = new EncodedSearchResponseMarshaller(2);
+        Generator generator = new Generator(new Random());
+        Laptop first = generator.NewLaptop();
+        Laptop second = generator.NewLaptop();
+        Laptop third = generator.NewLaptop();
+
+        roundTrip(marshaller, first);
+        roundTrip(marshaller, second);
+        roundTrip(marshaller, first);
+        roundTrip(marshaller, third);
+        Assertions.assertEquals(2, marshaller.size());
+
+        roundTrip(marshaller, first);
+        Assertions.assertEquals(2, marshaller.getHits());
+        roundTrip(marshaller, second);
+        Assertions.assertEquals(2, marshaller.getHits());
+        Assertions.assertEquals(4, marshaller.getMisses());
+    }
+
+    @Test
+    public void staysBoundedUnderConcurrentSearches() throws Exception {
+        EncodedSearchResponseMarshaller marshaller = new EncodedSearchResponseMarshaller(16);
+        Generator generator = new Generator(new Random());
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            laptops.add(generator.NewLaptop());
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            tasks.add(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    Laptop laptop = laptops.get(ThreadLocalRandom.current().nextInt(laptops.size()));
+                    Assertions.assertEquals(laptop, roundTrip(marshaller, laptop));
+                }
+                return null;
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // a miss evicts down to the bound once no other thread is inserting
+        roundTrip(marshaller, generator.NewLaptop());
+        Assertions.assertTrue(marshaller.size() <= 16);
+        Assertions.assertEquals(8001, marshaller.getHits() + marshaller.getMisses());
+    }
+
+    private Laptop roundTrip(EncodedSearchResponseMarshaller marshaller, Laptop laptop) throws Exception {
+        try (InputStream stream = marshaller.stream(SearchLaptopResponse.newBuilder().setLaptop(laptop).build())) {
+            return marshaller.parse(stream).getLaptop();
+        }
+    }
+}
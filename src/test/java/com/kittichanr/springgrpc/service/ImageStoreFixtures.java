@@ -0,0 +1,38 @@
+package com.kittichanr.springgrpc.service;
+
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Assertions;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads and checks shared by the image store tests.
+ */
+final class ImageStoreFixtures {
+
+    private ImageStoreFixtures() {
+    }
+
+    static String save(ImageStore imageStore, byte[] image) throws Exception {
+        ImageWriter writer = imageStore.Open(UUID.randomUUID().toString(), ".jpg");
+        for (int offset = 0; offset < image.length; offset += 1024) {
+            writer.Write(ByteString.copyFrom(image, offset, Math.min(1024, image.length - offset)));
+        }
+        return writer.Commit().get(5, TimeUnit.SECONDS);
+    }
+
+    static byte[] randomImage(int size) {
+        byte[] image = new byte[size];
+        new Random().nextBytes(image);
+        return image;
+    }
+
+    static void assertImage(byte[] expected, ByteBuffer actual) {
+        byte[] bytes = new byte[actual.remaining()];
+        actual.get(bytes);
+        Assertions.assertArrayEquals(expected, bytes);
+    }
+}
@@ -0,0 +1,51 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.springgrpc.sample.Generator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class InMemoryLaptopStoreTest {
+
+    @Test
+    public void concurrentSaveWithSameID() throws Exception {
+        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
+        Generator generator = new Generator(new Random());
+        Laptop laptop = generator.NewLaptop();
+
+        List<Callable<Boolean>> tasks = new LinkedList<>();
+        int n = 100;
+        for (int i = 0; i < n; i++) {
+            // same ID, different content, so the stored instance shows which save won
+            Laptop candidate = generator.NewLaptop().toBuilder().setId(laptop.getId()).build();
+            tasks.add(() -> {
+                try {
+                    laptopStore.Save(candidate);
+                    return true;
+                } catch (AlreadyExistsException e) {
+                    return false;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newWorkStealingPool();
+        int saved = 0;
+        for (Future<Boolean> future : executor.invokeAll(tasks)) {
+            if (future.get()) {
+                saved++;
+            }
+        }
+        executor.shutdown();
+
+        Assertions.assertEquals(1, saved);
+        Assertions.assertNotNull(laptopStore.Find(laptop.getId()));
+    }
+}
@@ -1,8 +1,15 @@
 package com.kittichanr.springgrpc.service;
 
+import com.google.protobuf.ByteString;
 import com.kittichanr.pcbook.generated.*;
 import com.kittichanr.springgrpc.sample.Generator;
+import io.grpc.ForwardingServerCallListener;
 import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
@@ -13,17 +20,26 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Properties;
 import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 class LaptopServerTest {
     @Rule
     public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule(); // automatic graceful shutdown channel at the end of test
     private LaptopStore laptopStore;
-    private ImageStore imageStore;
+    private DiskImageStore imageStore;
     private RatingStore ratingStore;
     private LaptopServer server;
     private ManagedChannel channel;
@@ -48,6 +64,7 @@ class LaptopServerTest {
     @AfterEach
     void tearDown() throws Exception {
         server.stop();
+        imageStore.close();
     }
 
     @Test
@@ -115,6 +132,57 @@ class LaptopServerTest {
         Assertions.assertEquals("ALREADY_EXISTS: laptop ID already exists", throwable.getMessage());
     }
 
+    @Test
+    public void createLaptops() throws Exception {
+        Generator generator = new Generator(new Random());
+        Laptop existing = generator.NewLaptop();
+        laptopStore.Save(existing);
+
+        Laptop valid = generator.NewLaptop();
+        Laptop emptyID = generator.NewLaptop().toBuilder().setId("").build();
+        Laptop invalidID = generator.NewLaptop().toBuilder().setId("invalid").build();
+        Laptop later = generator.NewLaptop();
+
+        List<CreateLaptopResult> results = new LinkedList<>();
+        CountDownLatch finished = new CountDownLatch(1);
+        LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(channel);
+        StreamObserver<CreateLaptopsRequest> requestObserver = stub.createLaptops(new StreamObserver<CreateLaptopsResponse>() {
+            @Override
+            public void onNext(CreateLaptopsResponse response) {
+                results.addAll(response.getResultsList());
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                finished.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                finished.countDown();
+            }
+        });
+
+        requestObserver.onNext(CreateLaptopsRequest.newBuilder()
+                .addLaptops(valid).addLaptops(emptyID).addLaptops(invalidID).addLaptops(existing)
+                .build());
+        requestObserver.onNext(CreateLaptopsRequest.newBuilder().addLaptops(later).build());
+        requestObserver.onCompleted();
+        Assertions.assertTrue(finished.await(5, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(5, results.size());
+        Assertions.assertEquals(Status.Code.OK.value(), results.get(0).getCode());
+        Assertions.assertEquals(valid.getId(), results.get(0).getId());
+        Assertions.assertEquals(Status.Code.OK.value(), results.get(1).getCode());
+        Assertions.assertNotNull(laptopStore.Find(results.get(1).getId()));
+        Assertions.assertEquals(Status.Code.INVALID_ARGUMENT.value(), results.get(2).getCode());
+        Assertions.assertEquals(Status.Code.ALREADY_EXISTS.value(), results.get(3).getCode());
+        Assertions.assertEquals(Status.Code.OK.value(), results.get(4).getCode());
+
+        Assertions.assertEquals(valid, laptopStore.Find(valid.getId()));
+        Assertions.assertEquals(later, laptopStore.Find(later.getId()));
+    }
+
     @Test
     public void searchLaptop() throws Exception {
         for (int i = 0; i < 6; i++) {
@@ -170,6 +238,233 @@ class LaptopServerTest {
         }
     }
 
+    @Test
+    public void searchLaptopWithPacing() throws Exception {
+        Properties config = new Properties();
+        config.setProperty("pcbook.search.pacing.enabled", "true");
+        config.setProperty("pcbook.search.pacing.permits-per-second", "50");
+        config.setProperty("pcbook.search.pacing.burst", "1");
+
+        String serverName = InProcessServerBuilder.generateName();
+        LaptopStore pacedLaptopStore = new InMemoryLaptopStore();
+        LaptopServer pacedServer = startServer(serverName, pacedLaptopStore, config);
+        ManagedChannel pacedChannel = InProcessChannelBuilder.forName(serverName).build();
+
+        try {
+            Generator generator = new Generator(new Random());
+            int n = 5;
+            for (int i = 0; i < n; i++) {
+                pacedLaptopStore.Save(generator.NewLaptop());
+            }
+
+            Filter filter = Filter.newBuilder().setMaxPriceUsd(4000).build();
+            SearchLaptopRequest request = SearchLaptopRequest.newBuilder().setFilter(filter).build();
+
+            long start = System.nanoTime();
+            Iterator<SearchLaptopResponse> responseIterator = LaptopServiceGrpc.newBlockingStub(pacedChannel).searchLaptop(request);
+            int found = 0;
+            while (responseIterator.hasNext()) {
+                Assertions.assertNotNull(responseIterator.next().getLaptop());
+                found++;
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            Assertions.assertEquals(n, found);
+            // one token up front, then one every 20ms
+            Assertions.assertTrue(elapsedMillis >= 70, "search finished in " + elapsedMillis + "ms");
+        } finally {
+            pacedChannel.shutdownNow();
+            pacedServer.stop();
+        }
+    }
+
+    @Test
+    public void searchLaptopWithEncodedCache() throws Exception {
+        Properties config = new Properties();
+        config.setProperty("pcbook.search.encoded-cache.enabled", "true");
+        config.setProperty("pcbook.metrics.enabled", "true");
+
+        String serverName = InProcessServerBuilder.generateName();
+        // returns a new copy of the laptop on every read, so the cache can't rely on identity
+        LaptopStore cachedLaptopStore = new OffHeapLaptopStore();
+        LaptopServer cachedServer = startServer(serverName, cachedLaptopStore, config);
+        ManagedChannel cachedChannel = InProcessChannelBuilder.forName(serverName).build();
+
+        try {
+            Generator generator = new Generator(new Random());
+            for (int i = 0; i < 3; i++) {
+                cachedLaptopStore.Save(generator.NewLaptop());
+            }
+
+            Filter filter = Filter.newBuilder().setMaxPriceUsd(4000).build();
+            SearchLaptopRequest request = SearchLaptopRequest.newBuilder().setFilter(filter).build();
+            LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(cachedChannel);
+
+            // the second search is served from the encoded bytes of the first one
+            for (int round = 0; round < 2; round++) {
+                int found = 0;
+                Iterator<SearchLaptopResponse> responseIterator = stub.searchLaptop(request);
+                while (responseIterator.hasNext()) {
+                    Laptop laptop = responseIterator.next().getLaptop();
+                    Assertions.assertEquals(cachedLaptopStore.Find(laptop.getId()), laptop);
+                    found++;
+                }
+                Assertions.assertEquals(3, found);
+            }
+
+            GetMetricsResponse metrics = MetricsServiceGrpc.newBlockingStub(cachedChannel)
+                    .getMetrics(GetMetricsRequest.getDefaultInstance());
+            Assertions.assertEquals(3, metrics.getValuesOrThrow("search_cache.misses"));
+            Assertions.assertEquals(3, metrics.getValuesOrThrow("search_cache.hits"));
+        } finally {
+            cachedChannel.shutdownNow();
+            cachedServer.stop();
+        }
+    }
+
+    @Test
+    public void uploadImage(@TempDir Path imageFolder) throws Exception {
+        Properties config = new Properties();
+        config.setProperty("pcbook.image.max-size", "4096");
+
+        // the client only ever sees the first status, so a second one is caught on the server
+        List<Throwable> serverErrors = Collections.synchronizedList(new LinkedList<>());
+        String serverName = InProcessServerBuilder.generateName();
+        InProcessServerBuilder serverBuilder = InProcessServerBuilder.forName(serverName).intercept(recordErrors(serverErrors));
+        LaptopServer uploadServer = new LaptopServer(serverBuilder, 0, laptopStore, new DiskImageStore(imageFolder.toString()),
+                ratingStore, new LaptopServerProperties(config));
+        uploadServer.start();
+        ManagedChannel uploadChannel = InProcessChannelBuilder.forName(serverName).build();
+
+        try {
+            Laptop laptop = new Generator(new Random()).NewLaptop();
+            laptopStore.Save(laptop);
+            LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(uploadChannel);
+
+            byte[] image = new byte[3000];
+            new Random().nextBytes(image);
+            UploadImageResponseStreamObserver responseObserver = uploadImage(stub, laptop.getId(), image);
+            Assertions.assertNull(responseObserver.err);
+            Assertions.assertEquals(image.length, responseObserver.response.getSize());
+            Assertions.assertArrayEquals(image, Files.readAllBytes(imageFolder.resolve(responseObserver.response.getId() + ".jpg")));
+
+            UploadImageResponseStreamObserver tooLarge = uploadImage(stub, laptop.getId(), new byte[5000]);
+            Assertions.assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(tooLarge.err).getCode());
+            // the aborted upload is removed in the background
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            long imageCount;
+            do {
+                try (Stream<Path> files = Files.list(imageFolder)) {
+                    imageCount = files.count();
+                }
+            } while (imageCount > 1 && System.nanoTime() < deadline);
+            Assertions.assertEquals(1, imageCount);
+            // the half-close after the error is ignored rather than closing the call a second time
+            Assertions.assertEquals(Collections.emptyList(), serverErrors);
+        } finally {
+            uploadChannel.shutdownNow();
+            uploadServer.stop();
+        }
+    }
+
+    @Test
+    public void uploadImageWithRepeatedInfo(@TempDir Path imageFolder) throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        LaptopServer uploadServer = startServer(serverName, laptopStore, new DiskImageStore(imageFolder.toString()), new Properties());
+        ManagedChannel uploadChannel = InProcessChannelBuilder.forName(serverName).build();
+
+        try {
+            Laptop laptop = new Generator(new Random()).NewLaptop();
+            laptopStore.Save(laptop);
+            LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(uploadChannel);
+
+            UploadImageResponseStreamObserver responseObserver = new UploadImageResponseStreamObserver();
+            StreamObserver<UploadImageRequest> requestObserver = stub.uploadImage(responseObserver);
+            ImageInfo info = ImageInfo.newBuilder().setLaptopId(laptop.getId()).setImageType(".jpg").build();
+            ByteString chunk = ByteString.copyFrom(new byte[1024]);
+            requestObserver.onNext(UploadImageRequest.newBuilder().setInfo(info).build());
+            requestObserver.onNext(UploadImageRequest.newBuilder().setChunkData(chunk).build());
+            requestObserver.onNext(UploadImageRequest.newBuilder().setInfo(info).build());
+            requestObserver.onNext(UploadImageRequest.newBuilder().setChunkData(chunk).build());
+            requestObserver.onCompleted();
+
+            Assertions.assertTrue(responseObserver.finished.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(responseObserver.err).getCode());
+            // the first upload is aborted, and removed in the background
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            long imageCount;
+            do {
+                try (Stream<Path> files = Files.list(imageFolder)) {
+                    imageCount = files.count();
+                }
+            } while (imageCount > 0 && System.nanoTime() < deadline);
+            Assertions.assertEquals(0, imageCount);
+        } finally {
+            uploadChannel.shutdownNow();
+            uploadServer.stop();
+        }
+    }
+
+    @Test
+    public void downloadImage(@TempDir Path imageFolder) throws Exception {
+        Properties config = new Properties();
+        config.setProperty("pcbook.image.download-chunk-size", "1000");
+
+        String serverName = InProcessServerBuilder.generateName();
+        DiskImageStore diskImageStore = new DiskImageStore(imageFolder.toString());
+        LaptopServer downloadServer = startServer(serverName, laptopStore, diskImageStore, config);
+        ManagedChannel downloadChannel = InProcessChannelBuilder.forName(serverName).build();
+
+        try {
+            String laptopID = new Generator(new Random()).NewLaptop().getId();
+            byte[] image = new byte[4500];
+            new Random().nextBytes(image);
+            ImageWriter writer = diskImageStore.Open(laptopID, ".png");
+            writer.Write(ByteString.copyFrom(image));
+            String imageID = writer.Commit().get(5, TimeUnit.SECONDS);
+
+            LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(downloadChannel);
+            Iterator<DownloadImageResponse> responseIterator = stub.downloadImage(
+                    DownloadImageRequest.newBuilder().setImageId(imageID).build());
+
+            ImageInfo info = responseIterator.next().getInfo();
+            Assertions.assertEquals(laptopID, info.getLaptopId());
+            Assertions.assertEquals(".png", info.getImageType());
+
+            ByteString downloaded = ByteString.EMPTY;
+            int chunks = 0;
+            while (responseIterator.hasNext()) {
+                downloaded = downloaded.concat(responseIterator.next().getChunkData());
+                chunks++;
+            }
+            Assertions.assertEquals(5, chunks);
+            Assertions.assertArrayEquals(image, downloaded.toByteArray());
+
+            StatusRuntimeException throwable = Assertions.assertThrows(StatusRuntimeException.class, () ->
+                    stub.downloadImage(DownloadImageRequest.newBuilder().setImageId("unknown").build()).next());
+            Assertions.assertEquals(Status.Code.NOT_FOUND, throwable.getStatus().getCode());
+        } finally {
+            downloadChannel.shutdownNow();
+            downloadServer.stop();
+        }
+    }
+
+    private UploadImageResponseStreamObserver uploadImage(LaptopServiceGrpc.LaptopServiceStub stub, String laptopID, byte[] image) throws Exception {
+        UploadImageResponseStreamObserver responseObserver = new UploadImageResponseStreamObserver();
+        StreamObserver<UploadImageRequest> requestObserver = stub.uploadImage(responseObserver);
+
+        ImageInfo info = ImageInfo.newBuilder().setLaptopId(laptopID).setImageType(".jpg").build();
+        requestObserver.onNext(UploadImageRequest.newBuilder().setInfo(info).build());
+        for (int offset = 0; offset < image.length; offset += 1024) {
+            ByteString chunk = ByteString.copyFrom(image, offset, Math.min(1024, image.length - offset));
+            requestObserver.onNext(UploadImageRequest.newBuilder().setChunkData(chunk).build());
+        }
+        requestObserver.onCompleted();
+
+        Assertions.assertTrue(responseObserver.finished.await(5, TimeUnit.SECONDS));
+        return responseObserver;
+    }
+
     @Test
     public void rateLaptop() throws Exception {
         Generator generator = new Generator(new Random());
@@ -206,13 +501,313 @@ class LaptopServerTest {
         }
     }
 
+    @Test
+    public void rateLaptopWithInvalidScore() throws Exception {
+        Laptop laptop = new Generator(new Random()).NewLaptop();
+        laptopStore.Save(laptop);
+
+        LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(channel);
+        RateLaptopResponseStreamObserver responseObserver = new RateLaptopResponseStreamObserver();
+        StreamObserver<RateLaptopRequest> requestObserver = stub.rateLaptop(responseObserver);
+        requestObserver.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptop.getId()).setScore(Double.NaN).build());
+        requestObserver.onCompleted();
+
+        Assertions.assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(responseObserver.err).getCode());
+        Assertions.assertTrue(responseObserver.responses.isEmpty());
+    }
+
+    @Test
+    public void rateLaptopBatched() throws Exception {
+        Properties config = new Properties();
+        config.setProperty("pcbook.rate.batch.enabled", "true");
+        config.setProperty("pcbook.rate.batch.window-ms", "60000");
+
+        String serverName = InProcessServerBuilder.generateName();
+        LaptopServer batchServer = startServer(serverName, laptopStore, config);
+        ManagedChannel batchChannel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+
+        try {
+            Generator generator = new Generator(new Random());
+            Laptop laptop1 = generator.NewLaptop();
+            Laptop laptop2 = generator.NewLaptop();
+            laptopStore.Save(laptop1);
+            laptopStore.Save(laptop2);
+
+            RateLaptopResponseStreamObserver responseObserver = new RateLaptopResponseStreamObserver();
+            StreamObserver<RateLaptopRequest> requestObserver = LaptopServiceGrpc.newStub(batchChannel).rateLaptop(responseObserver);
+
+            String[] laptopIDs = {laptop1.getId(), laptop2.getId(), laptop1.getId(), laptop1.getId(), laptop2.getId()};
+            double[] scores = {8, 6, 7.5, 10, 9};
+            for (int i = 0; i < scores.length; i++) {
+                requestObserver.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptopIDs[i]).setScore(scores[i]).build());
+            }
+
+            // the window is long, so everything is answered when the stream completes
+            requestObserver.onCompleted();
+            Assertions.assertTrue(responseObserver.finished.await(5, TimeUnit.SECONDS));
+            Assertions.assertNull(responseObserver.err);
+            Assertions.assertTrue(responseObserver.completed);
+            Assertions.assertEquals(2, responseObserver.responses.size());
+
+            RateLaptopResponse response1 = responseObserver.responses.get(0);
+            Assertions.assertEquals(laptop1.getId(), response1.getLaptopId());
+            Assertions.assertEquals(3, response1.getRatedCount());
+            Assertions.assertEquals(8.5, response1.getAverageScore(), 1e-9);
+
+            RateLaptopResponse response2 = responseObserver.responses.get(1);
+            Assertions.assertEquals(laptop2.getId(), response2.getLaptopId());
+            Assertions.assertEquals(2, response2.getRatedCount());
+            Assertions.assertEquals(7.5, response2.getAverageScore(), 1e-9);
+        } finally {
+            batchChannel.shutdownNow();
+            batchServer.stop();
+        }
+    }
+
+    @Test
+    public void rateLaptopBatchedBySize() throws Exception {
+        Properties config = new Properties();
+        config.setProperty("pcbook.rate.batch.enabled", "true");
+        config.setProperty("pcbook.rate.batch.max-size", "2");
+        config.setProperty("pcbook.rate.batch.window-ms", "60000");
+
+        String serverName = InProcessServerBuilder.generateName();
+        LaptopServer batchServer = startServer(serverName, laptopStore, config);
+        ManagedChannel batchChannel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+
+        try {
+            Generator generator = new Generator(new Random());
+            Laptop laptop1 = generator.NewLaptop();
+            Laptop laptop2 = generator.NewLaptop();
+            laptopStore.Save(laptop1);
+            laptopStore.Save(laptop2);
+
+            RateLaptopResponseStreamObserver responseObserver = new RateLaptopResponseStreamObserver();
+            StreamObserver<RateLaptopRequest> requestObserver = LaptopServiceGrpc.newStub(batchChannel).rateLaptop(responseObserver);
+
+            // every second score fills a batch, well before the window ends
+            requestObserver.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptop1.getId()).setScore(8).build());
+            requestObserver.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptop1.getId()).setScore(6).build());
+            responseObserver.awaitResponses(1);
+            Assertions.assertEquals(2, responseObserver.responses.get(0).getRatedCount());
+            Assertions.assertEquals(7, responseObserver.responses.get(0).getAverageScore(), 1e-9);
+
+            requestObserver.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptop2.getId()).setScore(9).build());
+            requestObserver.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptop1.getId()).setScore(10).build());
+            responseObserver.awaitResponses(3);
+            Assertions.assertEquals(laptop2.getId(), responseObserver.responses.get(1).getLaptopId());
+            Assertions.assertEquals(1, responseObserver.responses.get(1).getRatedCount());
+            Assertions.assertEquals(laptop1.getId(), responseObserver.responses.get(2).getLaptopId());
+            Assertions.assertEquals(3, responseObserver.responses.get(2).getRatedCount());
+            Assertions.assertEquals(8, responseObserver.responses.get(2).getAverageScore(), 1e-9);
+
+            requestObserver.onCompleted();
+            Assertions.assertTrue(responseObserver.finished.await(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(responseObserver.completed);
+            Assertions.assertEquals(3, responseObserver.responses.size());
+        } finally {
+            batchChannel.shutdownNow();
+            batchServer.stop();
+        }
+    }
+
+    @Test
+    public void rateLaptopBatchedByWindow() throws Exception {
+        Properties config = new Properties();
+        config.setProperty("pcbook.rate.batch.enabled", "true");
+        config.setProperty("pcbook.rate.batch.window-ms", "20");
+
+        String serverName = InProcessServerBuilder.generateName();
+        LaptopServer batchServer = startServer(serverName, laptopStore, config);
+        ManagedChannel batchChannel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+
+        try {
+            Laptop laptop = new Generator(new Random()).NewLaptop();
+            laptopStore.Save(laptop);
+
+            RateLaptopResponseStreamObserver responseObserver = new RateLaptopResponseStreamObserver();
+            StreamObserver<RateLaptopRequest> requestObserver = LaptopServiceGrpc.newStub(batchChannel).rateLaptop(responseObserver);
+
+            // answered by the window timer while the stream stays open
+            requestObserver.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptop.getId()).setScore(8).build());
+            responseObserver.awaitResponses(1);
+            Assertions.assertEquals(1, responseObserver.responses.get(0).getRatedCount());
+
+            requestObserver.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptop.getId()).setScore(10).build());
+            responseObserver.awaitResponses(2);
+            Assertions.assertEquals(2, responseObserver.responses.get(1).getRatedCount());
+            Assertions.assertEquals(9, responseObserver.responses.get(1).getAverageScore(), 1e-9);
+
+            requestObserver.onCompleted();
+            Assertions.assertTrue(responseObserver.finished.await(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(responseObserver.completed);
+        } finally {
+            batchChannel.shutdownNow();
+            batchServer.stop();
+        }
+    }
+
+    @Test
+    public void rateLaptopBatchedKeepsScoresBeforeUnknownLaptop() throws Exception {
+        Properties config = new Properties();
+        config.setProperty("pcbook.rate.batch.enabled", "true");
+        config.setProperty("pcbook.rate.batch.window-ms", "60000");
+
+        String serverName = InProcessServerBuilder.generateName();
+        LaptopServer batchServer = startServer(serverName, laptopStore, config);
+        ManagedChannel batchChannel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+
+        try {
+            Laptop laptop = new Generator(new Random()).NewLaptop();
+            laptopStore.Save(laptop);
+
+            RateLaptopResponseStreamObserver responseObserver = new RateLaptopResponseStreamObserver();
+            StreamObserver<RateLaptopRequest> requestObserver = LaptopServiceGrpc.newStub(batchChannel).rateLaptop(responseObserver);
+            requestObserver.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptop.getId()).setScore(8).build());
+            requestObserver.onNext(RateLaptopRequest.newBuilder().setLaptopId(UUID.randomUUID().toString()).setScore(5).build());
+
+            Assertions.assertTrue(responseObserver.finished.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(Status.Code.NOT_FOUND, Status.fromThrowable(responseObserver.err).getCode());
+            Assertions.assertEquals(1, responseObserver.responses.size());
+            Assertions.assertEquals(1, responseObserver.responses.get(0).getRatedCount());
+            // the score is in the store, so the next one is the laptop's second
+            Assertions.assertEquals(2, ratingStore.Add(laptop.getId(), 10).getCount());
+        } finally {
+            batchChannel.shutdownNow();
+            batchServer.stop();
+        }
+    }
+
+    @Test
+    public void getMetrics() throws Exception {
+        Properties config = new Properties();
+        config.setProperty("pcbook.metrics.enabled", "true");
+
+        String serverName = InProcessServerBuilder.generateName();
+        LaptopServer metricsServer = startServer(serverName, laptopStore, config);
+        ManagedChannel metricsChannel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+
+        try {
+            Generator generator = new Generator(new Random());
+            LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(metricsChannel);
+            for (int i = 0; i < 3; i++) {
+                stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+            }
+            Filter filter = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+            Iterator<SearchLaptopResponse> responses = stub.searchLaptop(SearchLaptopRequest.newBuilder().setFilter(filter).build());
+            responses.forEachRemaining(response -> {
+            });
+
+            MetricsServiceGrpc.MetricsServiceBlockingStub metricsStub = MetricsServiceGrpc.newBlockingStub(metricsChannel);
+            GetMetricsResponse metrics = metricsStub.getMetrics(GetMetricsRequest.newBuilder().setResetHistograms(true).build());
+
+            String createLaptop = "grpc.server." + LaptopServiceGrpc.getCreateLaptopMethod().getFullMethodName();
+            String searchLaptop = "grpc.server." + LaptopServiceGrpc.getSearchLaptopMethod().getFullMethodName();
+            Assertions.assertEquals(3, metrics.getValuesOrThrow(createLaptop + ".started"));
+            Assertions.assertEquals(3, metrics.getValuesOrThrow(createLaptop + ".finished.OK"));
+            Assertions.assertEquals(0, metrics.getValuesOrThrow(createLaptop + ".in_flight"));
+            Assertions.assertEquals(3, metrics.getValuesOrThrow(searchLaptop + ".messages_sent"));
+            Assertions.assertEquals(3, metrics.getValuesOrThrow("laptop_store.saves"));
+            Assertions.assertEquals(3, metrics.getValuesOrThrow("laptop_store.search_matches"));
+            Assertions.assertEquals(3, metrics.getValuesOrThrow("laptop_store.scanned_rows"));
+
+            HistogramSnapshot latency = metrics.getHistogramsList().stream()
+                    .filter(histogram -> histogram.getName().equals(createLaptop + ".latency_us"))
+                    .findFirst()
+                    .orElseThrow();
+            Assertions.assertEquals(3, latency.getCount());
+
+            // the histograms were reset by the first call, the counters never are
+            GetMetricsResponse next = metricsStub.getMetrics(GetMetricsRequest.getDefaultInstance());
+            Assertions.assertEquals(3, next.getValuesOrThrow(createLaptop + ".started"));
+            Assertions.assertTrue(next.getHistogramsList().stream()
+                    .filter(histogram -> histogram.getName().equals(createLaptop + ".latency_us"))
+                    .allMatch(histogram -> histogram.getCount() == 0));
+        } finally {
+            metricsChannel.shutdownNow();
+            metricsServer.stop();
+        }
+    }
+
+    private LaptopServer startServer(String serverName, LaptopStore laptopStore, Properties config) throws Exception {
+        return startServer(serverName, laptopStore, imageStore, config);
+    }
+
+    private LaptopServer startServer(String serverName, LaptopStore laptopStore, ImageStore imageStore, Properties config) throws Exception {
+        LaptopServer laptopServer = new LaptopServer(InProcessServerBuilder.forName(serverName), 0,
+                laptopStore, imageStore, ratingStore, new LaptopServerProperties(config));
+        laptopServer.start();
+        return laptopServer;
+    }
+
+    private static ServerInterceptor recordErrors(List<Throwable> errors) {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(next.startCall(call, headers)) {
+                    @Override
+                    public void onMessage(ReqT message) {
+                        try {
+                            super.onMessage(message);
+                        } catch (RuntimeException e) {
+                            errors.add(e);
+                            throw e;
+                        }
+                    }
+
+                    @Override
+                    public void onHalfClose() {
+                        try {
+                            super.onHalfClose();
+                        } catch (RuntimeException e) {
+                            errors.add(e);
+                            throw e;
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    private static class UploadImageResponseStreamObserver implements StreamObserver<UploadImageResponse> {
+        public final CountDownLatch finished = new CountDownLatch(1);
+        public UploadImageResponse response;
+        public Throwable err;
+
+        @Override
+        public void onNext(UploadImageResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            err = t;
+            finished.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            finished.countDown();
+        }
+    }
+
     private class RateLaptopResponseStreamObserver implements StreamObserver<RateLaptopResponse> {
+        public final CountDownLatch finished = new CountDownLatch(1);
         public List<RateLaptopResponse> responses;
         public Throwable err;
         public boolean completed;
 
         public RateLaptopResponseStreamObserver() {
-            responses = new LinkedList<>();
+            // batched responses may come from the window timer
+            responses = Collections.synchronizedList(new LinkedList<>());
+        }
+
+        public void awaitResponses(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (responses.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            Assertions.assertEquals(count, responses.size());
         }
 
         @Override
@@ -223,11 +818,13 @@ class LaptopServerTest {
         @Override
         public void onError(Throwable t) {
             err = t;
+            finished.countDown();
         }
 
         @Override
         public void onCompleted() {
             completed = true;
+            finished.countDown();
         }
     }
 }
\ No newline at end of file
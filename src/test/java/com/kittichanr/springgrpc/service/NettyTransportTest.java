@@ -0,0 +1,57 @@
+package com.kittichanr.springgrpc.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.Properties;
+
+class NettyTransportTest {
+    @Test
+    void autoTunedWindow() throws Exception {
+        try (NettyTransport transport = transport(true)) {
+            assertFlowControl(transport.forPort(0), true);
+            assertFlowControl(transport.forAddress("localhost", 8080), true);
+        }
+    }
+
+    @Test
+    void fixedWindow() throws Exception {
+        try (NettyTransport transport = transport(false)) {
+            assertFlowControl(transport.forPort(0), false);
+            assertFlowControl(transport.forAddress("localhost", 8080), false);
+        }
+    }
+
+    @Test
+    void keepAliveWithoutCallsIsOptIn() throws Exception {
+        try (NettyTransport transport = transport(true)) {
+            Assertions.assertEquals(false, field(transport.forPort(0), "permitKeepAliveWithoutCalls"));
+        }
+
+        Properties config = new Properties();
+        config.setProperty("pcbook.transport.keepalive-without-calls", "true");
+        try (NettyTransport transport = new NettyTransport(new LaptopServerProperties(config))) {
+            Assertions.assertEquals(true, field(transport.forPort(0), "permitKeepAliveWithoutCalls"));
+        }
+    }
+
+    private static NettyTransport transport(boolean autoTune) {
+        Properties config = new Properties();
+        config.setProperty("pcbook.transport.flow-control-window", String.valueOf(4 << 20));
+        config.setProperty("pcbook.transport.flow-control-auto-tune", String.valueOf(autoTune));
+        return new NettyTransport(new LaptopServerProperties(config));
+    }
+
+    // the Netty builders have no getters, so read the settings they'll hand to the transport
+    private static void assertFlowControl(Object builder, boolean autoTune) throws Exception {
+        Assertions.assertEquals(4 << 20, field(builder, "flowControlWindow"));
+        Assertions.assertEquals(autoTune, field(builder, "autoFlowControl"));
+    }
+
+    private static Object field(Object builder, String name) throws Exception {
+        Field field = builder.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(builder);
+    }
+}
@@ -0,0 +1,79 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.springgrpc.sample.Generator;
+import io.grpc.Context;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+class OffHeapLaptopStoreTest {
+
+    @Test
+    public void saveAndFind() throws Exception {
+        OffHeapLaptopStore laptopStore = new OffHeapLaptopStore();
+        Laptop laptop = new Generator(new Random()).NewLaptop();
+        laptopStore.Save(laptop);
+
+        Assertions.assertEquals(laptop, laptopStore.Find(laptop.getId()));
+        Assertions.assertNull(laptopStore.Find("unknown"));
+        Assertions.assertThrows(AlreadyExistsException.class, () -> laptopStore.Save(laptop));
+    }
+
+    @Test
+    public void findIgnoresCaseOfID() throws Exception {
+        OffHeapLaptopStore laptopStore = new OffHeapLaptopStore();
+        Generator generator = new Generator(new Random());
+        Laptop laptop = generator.NewLaptop();
+        Laptop upperCase = generator.NewLaptop();
+        upperCase = upperCase.toBuilder().setId(upperCase.getId().toUpperCase()).build();
+        laptopStore.Save(laptop);
+        laptopStore.Save(upperCase);
+
+        // like the stores keyed on UUIDs, whatever the case of either ID
+        Assertions.assertEquals(laptop, laptopStore.Find(laptop.getId().toUpperCase()));
+        Assertions.assertEquals(upperCase, laptopStore.Find(upperCase.getId().toLowerCase()));
+    }
+
+    @Test
+    public void searchAcrossMappedChunks(@TempDir Path folder) throws Exception {
+        // chunks of a few records each, so the arena grows many times
+        try (OffHeapLaptopStore laptopStore = new OffHeapLaptopStore(4096, folder.resolve("laptops.arena"))) {
+            Generator generator = new Generator(new Random());
+            List<Laptop> laptops = new LinkedList<>();
+            for (int i = 0; i < 3000; i++) {
+                Laptop laptop = generator.NewLaptop();
+                laptops.add(laptop);
+                laptopStore.Save(laptop);
+            }
+
+            for (Laptop laptop : laptops) {
+                Assertions.assertEquals(laptop, laptopStore.Find(laptop.getId()));
+            }
+
+            Filter filter = Filter.newBuilder().setMaxPriceUsd(2500).setMinCpuCores(4).build();
+            Set<String> expected = new HashSet<>();
+            for (Laptop laptop : laptops) {
+                if (laptop.getPriceUsd() <= filter.getMaxPriceUsd()
+                        && laptop.getCpu().getNumberCores() >= filter.getMinCpuCores()) {
+                    expected.add(laptop.getId());
+                }
+            }
+
+            Set<String> found = new HashSet<>();
+            LaptopStream stream = laptopStore.Search(Context.current(), filter);
+            for (Laptop laptop = stream.Next(); laptop != null; laptop = stream.Next()) {
+                found.add(laptop.getId());
+            }
+            Assertions.assertEquals(expected, found);
+        }
+    }
+}
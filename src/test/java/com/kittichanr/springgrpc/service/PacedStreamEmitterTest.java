@@ -0,0 +1,157 @@
+package com.kittichanr.springgrpc.service;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+class PacedStreamEmitterTest {
+    @Test
+    void suspendsUntilReady() {
+        FakeObserver observer = new FakeObserver();
+        AtomicInteger pulled = new AtomicInteger();
+        Supplier<Integer> source = () -> pulled.get() < 5 ? pulled.incrementAndGet() : null;
+
+        observer.ready = false;
+        new PacedStreamEmitter<>(observer, source, null, null).start();
+        Assertions.assertEquals(0, pulled.get());
+
+        // the client's window takes two responses at a time
+        observer.readyFor = 2;
+        observer.becomeReady();
+        Assertions.assertEquals(List.of(1, 2), observer.received);
+        Assertions.assertEquals(2, pulled.get());
+        Assertions.assertFalse(observer.completed);
+
+        observer.readyFor = Integer.MAX_VALUE;
+        observer.becomeReady();
+        Assertions.assertEquals(List.of(1, 2, 3, 4, 5), observer.received);
+        Assertions.assertTrue(observer.completed);
+    }
+
+    @Test
+    void suspendsUntilSourceReady() {
+        FakeObserver observer = new FakeObserver();
+        AtomicInteger available = new AtomicInteger();
+        AtomicInteger pulled = new AtomicInteger();
+        Supplier<Integer> source = () -> pulled.get() < 3 ? pulled.incrementAndGet() : null;
+
+        // the source has nothing until its results arrive, and the emitter mustn't pull it meanwhile
+        PacedStreamEmitter<Integer> emitter = new PacedStreamEmitter<>(observer, source,
+                () -> pulled.get() < available.get() || available.get() > 3, null, null);
+        emitter.start();
+        Assertions.assertEquals(0, pulled.get());
+
+        available.set(2);
+        emitter.onSourceReady();
+        Assertions.assertEquals(List.of(1, 2), observer.received);
+
+        available.set(4);
+        emitter.onSourceReady();
+        Assertions.assertEquals(List.of(1, 2, 3), observer.received);
+        Assertions.assertTrue(observer.completed);
+    }
+
+    @Test
+    void failingSourceClosesCall() throws Exception {
+        FakeObserver observer = new FakeObserver();
+        Supplier<Integer> source = () -> {
+            throw Status.UNAVAILABLE.withDescription("shard is down").asRuntimeException();
+        };
+        // an empty bucket, so the source is first read by the scheduler
+        TokenBucket bucket = new TokenBucket(100, 1);
+        bucket.tryAcquire();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            new PacedStreamEmitter<>(observer, source, bucket, scheduler).start();
+            Assertions.assertTrue(observer.closed.await(5, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdownNow();
+        }
+        Status status = Status.fromThrowable(observer.error);
+        Assertions.assertEquals(Status.Code.UNAVAILABLE, status.getCode());
+        Assertions.assertEquals("shard is down", status.getDescription());
+    }
+
+    /**
+     * Call observer whose readiness the test controls: it turns unready after readyFor responses.
+     */
+    private static class FakeObserver extends ServerCallStreamObserver<Integer> {
+        private final List<Integer> received = new ArrayList<>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private Runnable onReadyHandler;
+        private boolean ready = true;
+        private int readyFor = Integer.MAX_VALUE;
+        private boolean completed;
+        private Throwable error;
+
+        void becomeReady() {
+            ready = true;
+            onReadyHandler.run();
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+            this.onReadyHandler = onReadyHandler;
+        }
+
+        @Override
+        public void onNext(Integer value) {
+            received.add(value);
+            if (--readyFor == 0) {
+                ready = false;
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            closed.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+            closed.countDown();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {
+        }
+
+        @Override
+        public void setCompression(String compression) {
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+
+        @Override
+        public void setMessageCompression(boolean enable) {
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.CreateLaptopRequest;
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.pcbook.generated.LaptopServiceGrpc;
+import com.kittichanr.springgrpc.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+class ServerExecutorsTest {
+    @Test
+    void modes() {
+        Assertions.assertNull(ServerExecutors.create(properties("default")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ServerExecutors.create(properties("elastic")));
+
+        if (Runtime.version().feature() >= 21) {
+            ExecutorService executor = ServerExecutors.create(properties("virtual"));
+            Assertions.assertNotNull(executor);
+            executor.shutdown();
+        } else {
+            Assertions.assertThrows(IllegalStateException.class, () -> ServerExecutors.create(properties("virtual")));
+        }
+    }
+
+    @Test
+    void boundedServesCalls() throws Exception {
+        Properties config = new Properties();
+        config.setProperty("pcbook.server.executor", "bounded");
+        config.setProperty("pcbook.server.executor.threads", "2");
+
+        // records the thread the service saved the laptop on
+        String[] savedOn = new String[1];
+        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore() {
+            @Override
+            public void Save(Laptop laptop) throws Exception {
+                savedOn[0] = Thread.currentThread().getName();
+                super.Save(laptop);
+            }
+        };
+
+        String serverName = InProcessServerBuilder.generateName();
+        LaptopServer server = new LaptopServer(InProcessServerBuilder.forName(serverName), 0, laptopStore,
+                new DiskImageStore("img"), new InMemoryRatingStore(), new LaptopServerProperties(config));
+        server.start();
+        ManagedChannel channel = InProcessChannelBuilder.forName(serverName).build();
+        try {
+            Laptop laptop = new Generator(new Random()).NewLaptop();
+            LaptopServiceGrpc.newBlockingStub(channel).createLaptop(CreateLaptopRequest.newBuilder().setLaptop(laptop).build());
+            Assertions.assertNotNull(laptopStore.Find(laptop.getId()));
+            Assertions.assertTrue(savedOn[0].startsWith("grpc-server-"), savedOn[0]);
+        } finally {
+            channel.shutdownNow();
+            server.stop();
+        }
+    }
+
+    private static LaptopServerProperties properties(String mode) {
+        Properties config = new Properties();
+        config.setProperty("pcbook.server.executor", mode);
+        return new LaptopServerProperties(config);
+    }
+}
@@ -0,0 +1,263 @@
+package com.kittichanr.springgrpc.service;
+
+import com.kittichanr.pcbook.generated.Filter;
+import com.kittichanr.pcbook.generated.Laptop;
+import com.kittichanr.springgrpc.sample.Generator;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class ShardedLaptopStoreTest {
+    private static final Filter MATCH_ALL = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+
+    private final Generator generator = new Generator(new Random());
+    private final List<LaptopServer> servers = new ArrayList<>();
+    private final List<DiskImageStore> imageStores = new ArrayList<>();
+    private final Map<String, InMemoryLaptopStore> nodeStores = new LinkedHashMap<>();
+    private ShardedLaptopStore laptopStore;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Map<String, RemoteLaptopStore> shards = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            String serverName = InProcessServerBuilder.generateName();
+            InMemoryLaptopStore nodeStore = new InMemoryLaptopStore();
+            LaptopServer server = new LaptopServer(InProcessServerBuilder.forName(serverName).directExecutor(), 0,
+                    nodeStore, newImageStore(), new InMemoryRatingStore());
+            server.start();
+            servers.add(server);
+            nodeStores.put("node-" + i, nodeStore);
+            shards.put("node-" + i, new RemoteLaptopStore(InProcessChannelBuilder.forName(serverName).build()));
+        }
+        laptopStore = new ShardedLaptopStore(shards);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        laptopStore.close();
+        for (LaptopServer server : servers) {
+            server.stop();
+        }
+        for (DiskImageStore imageStore : imageStores) {
+            imageStore.close();
+        }
+    }
+
+    @Test
+    void routesToOwner() throws Exception {
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            Laptop laptop = generator.NewLaptop();
+            laptopStore.Save(laptop);
+            laptops.add(laptop);
+        }
+
+        for (Laptop laptop : laptops) {
+            Assertions.assertEquals(laptop, laptopStore.Find(laptop.getId()));
+            Assertions.assertNotNull(nodeStores.get(laptopStore.shardName(laptop.getId())).Find(laptop.getId()));
+        }
+        for (InMemoryLaptopStore nodeStore : nodeStores.values()) {
+            Assertions.assertTrue(count(nodeStore.Search(Context.ROOT, MATCH_ALL)) > 0);
+        }
+        Assertions.assertNull(laptopStore.Find(UUID.randomUUID().toString()));
+        Assertions.assertThrows(AlreadyExistsException.class, () -> laptopStore.Save(laptops.get(0)));
+
+        Set<String> found = new HashSet<>();
+        LaptopStream stream = laptopStore.Search(Context.ROOT, MATCH_ALL);
+        Laptop laptop;
+        while ((laptop = stream.Next()) != null) {
+            Assertions.assertTrue(found.add(laptop.getId()));
+        }
+        Assertions.assertEquals(60, found.size());
+    }
+
+    @Test
+    void saveAllSplitsByShard() {
+        Laptop existing = generator.NewLaptop();
+        List<Laptop> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(generator.NewLaptop());
+        }
+        batch.add(batch.get(3));
+        batch.add(generator.NewLaptop().toBuilder().setId("not-a-uuid").build());
+
+        List<Exception> errors = laptopStore.SaveAll(batch);
+        Assertions.assertEquals(batch.size(), errors.size());
+        for (int i = 0; i < 20; i++) {
+            Assertions.assertNull(errors.get(i));
+            Assertions.assertNotNull(laptopStore.Find(batch.get(i).getId()));
+        }
+        Assertions.assertInstanceOf(AlreadyExistsException.class, errors.get(20));
+        Assertions.assertInstanceOf(IllegalArgumentException.class, errors.get(21));
+        Assertions.assertNull(laptopStore.Find(existing.getId()));
+    }
+
+    @Test
+    void searchStopsWhenCancelled() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            laptopStore.Save(generator.NewLaptop());
+        }
+
+        Context.CancellableContext ctx = Context.ROOT.withCancellation();
+        LaptopStream stream = laptopStore.Search(ctx, MATCH_ALL);
+        Assertions.assertNotNull(stream.Next());
+        ctx.cancel(null);
+        Assertions.assertNull(stream.Next());
+    }
+
+    @Test
+    void searchFailsWhenShardIsDown() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            laptopStore.Save(generator.NewLaptop());
+        }
+        servers.get(1).stop();
+
+        LaptopStream stream = laptopStore.Search(Context.ROOT, MATCH_ALL);
+        StatusRuntimeException e = Assertions.assertThrows(StatusRuntimeException.class, () -> count(stream));
+        Assertions.assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        Assertions.assertNull(stream.Next());
+    }
+
+    @Test
+    void searchIsReadyOnceSlowShardDelivers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        InMemoryLaptopStore slowStore = new InMemoryLaptopStore() {
+            @Override
+            public LaptopStream Search(Context context, Filter filter) {
+                LaptopStream stream = super.Search(context, filter);
+                return () -> {
+                    awaitQuietly(release);
+                    return stream.Next();
+                };
+            }
+        };
+        Laptop laptop = generator.NewLaptop();
+        slowStore.Save(laptop);
+        ShardedLaptopStore sharded = new ShardedLaptopStore(Map.of("slow", startNode(slowStore, 5000)));
+
+        LaptopStream stream = sharded.Search(Context.ROOT, MATCH_ALL);
+        CountDownLatch ready = new CountDownLatch(1);
+        stream.setOnReadyHandler(ready::countDown);
+        // a caller following isReady doesn't pull, and so doesn't wait, until the shard has answered
+        Assertions.assertFalse(stream.isReady());
+        release.countDown();
+
+        Assertions.assertTrue(ready.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(stream.isReady());
+        Assertions.assertEquals(laptop, stream.Next());
+        sharded.close();
+    }
+
+    @Test
+    void remoteCallsFailAfterDeadline() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        InMemoryLaptopStore hungStore = new InMemoryLaptopStore() {
+            @Override
+            public Laptop Find(String id) {
+                awaitQuietly(release);
+                return super.Find(id);
+            }
+        };
+        RemoteLaptopStore remote = startNode(hungStore, 100);
+        try {
+            StatusRuntimeException e = Assertions.assertThrows(StatusRuntimeException.class,
+                    () -> remote.Find(UUID.randomUUID().toString()));
+            Assertions.assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+        } finally {
+            release.countDown();
+            remote.close();
+        }
+    }
+
+    @Test
+    void addingShardMovesOnlyItsShare() throws Exception {
+        Map<String, LaptopStore> four = new LinkedHashMap<>();
+        for (String name : List.of("a", "b", "c", "d")) {
+            four.put(name, new InMemoryLaptopStore());
+        }
+        Map<String, LaptopStore> five = new LinkedHashMap<>(four);
+        five.put("e", new InMemoryLaptopStore());
+
+        ShardedLaptopStore before = new ShardedLaptopStore(four);
+        ShardedLaptopStore after = new ShardedLaptopStore(five);
+        int moved = 0;
+        int keys = 10000;
+        for (int i = 0; i < keys; i++) {
+            String id = UUID.randomUUID().toString();
+            String owner = after.shardName(id);
+            if (!owner.equals(before.shardName(id))) {
+                // a laptop only ever moves to the new shard
+                Assertions.assertEquals("e", owner);
+                moved++;
+            }
+        }
+        Assertions.assertTrue(moved > keys / 10 && moved < keys * 3 / 10, "moved " + moved);
+
+        // local shards are searched without the remote arrivals queue
+        for (int i = 0; i < 20; i++) {
+            after.Save(generator.NewLaptop());
+        }
+        Assertions.assertEquals(20, count(after.Search(Context.ROOT, MATCH_ALL)));
+        before.close();
+        after.close();
+    }
+
+    @Test
+    void closeClosesShards(@TempDir Path folder) throws Exception {
+        DurableLaptopStore durable = new DurableLaptopStore(folder, new InMemoryLaptopStore(), 1 << 20, 100);
+        ShardedLaptopStore sharded = new ShardedLaptopStore(Map.of("durable", durable, "memory", new InMemoryLaptopStore()));
+        sharded.close();
+        Assertions.assertThrows(IllegalStateException.class, () -> durable.Save(generator.NewLaptop()));
+    }
+
+    private DiskImageStore newImageStore() {
+        DiskImageStore imageStore = new DiskImageStore("img");
+        imageStores.add(imageStore);
+        return imageStore;
+    }
+
+    private RemoteLaptopStore startNode(LaptopStore nodeStore, long deadlineMillis) throws Exception {
+        // the default executor, so a node that blocks doesn't hold the test thread
+        String serverName = InProcessServerBuilder.generateName();
+        LaptopServer server = new LaptopServer(InProcessServerBuilder.forName(serverName), 0,
+                nodeStore, newImageStore(), new InMemoryRatingStore());
+        server.start();
+        servers.add(server);
+        return new RemoteLaptopStore(InProcessChannelBuilder.forName(serverName).build(), deadlineMillis);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int count(LaptopStream stream) {
+        int count = 0;
+        while (stream.Next() != null) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,59 @@
+package com.kittichanr.springgrpc.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class StripedRatingStoreTest {
+
+    @Test
+    public void add() throws Exception {
+        StripedRatingStore ratingStore = new StripedRatingStore();
+
+        List<Callable<Rating>> tasks = new LinkedList<>();
+        String laptopID = UUID.randomUUID().toString();
+        double score = 5;
+
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            tasks.add(() -> ratingStore.Add(laptopID, score));
+        }
+
+        ExecutorService executor = Executors.newWorkStealingPool();
+        for (Future<Rating> future : executor.invokeAll(tasks)) {
+            // every rating is a consistent count and sum, including at least its own score
+            Rating rating = future.get();
+            Assertions.assertTrue(rating.getCount() >= 1 && rating.getCount() <= n);
+            Assertions.assertEquals(rating.getCount() * score, rating.getSum(), 1e-9);
+        }
+        executor.shutdown();
+
+        Rating rating = ratingStore.Add(laptopID, score);
+        Assertions.assertEquals(n + 1, rating.getCount());
+        Assertions.assertEquals((n + 1) * score, rating.getSum(), 1e-9);
+    }
+
+    @Test
+    public void addFractionalAndNegativeScores() {
+        StripedRatingStore ratingStore = new StripedRatingStore();
+        String laptopID = UUID.randomUUID().toString();
+
+        ratingStore.Add(laptopID, 7.5);
+        ratingStore.AddAll(laptopID, 2, -3.25);
+        // scores are kept to 1/64, so 8.3 is close but not exact
+        Rating rating = ratingStore.Add(laptopID, 8.3);
+        Assertions.assertEquals(4, rating.getCount());
+        Assertions.assertEquals(7.5 - 3.25 + 8.3, rating.getSum(), 1.0 / 128);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ratingStore.Add(laptopID, Double.NaN));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ratingStore.Add(laptopID, RatingStore.MAX_SCORE + 1));
+        Assertions.assertEquals(5, ratingStore.Add(laptopID, 0).getCount());
+    }
+}